@@ -1,71 +1,68 @@
 package main.java;
 
 import main.java.engine.graphics.*;
+import main.java.engine.io.AssetLoader;
 import main.java.engine.io.Input;
-import main.java.engine.io.ModelLoader;
 import main.java.engine.io.Window;
 import main.java.engine.objects.Camera;
+import main.java.engine.objects.EntityStore;
+import main.java.engine.objects.EntitySystems;
 import main.java.engine.objects.GameObject;
+import main.java.engine.objects.SceneGraph;
+import main.java.engine.objects.SpatialIndex;
+import main.java.engine.utils.GameLoop;
+import main.java.engine.utils.Profiler;
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.glfw.GLFW;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Main implements Runnable {
 	private Window window;
 	private Renderer renderer;
-	private Shader shader;
+	private ShaderVariants shaders;
 	private Shader shaderSkybox;
 	private Vector3f ambientLight;
 	Path ttt = t();
-	private final Mesh airplaneModel = ModelLoader.loadModel(
-			"src/main/resources/models/6/airplane_v2_L2.123c71795678-4b63-46c4-b2c6-549c45f4c806/my.obj",
-			"src/main/resources/models/6/airplane_v2_L2.123c71795678-4b63-46c4-b2c6-549c45f4c806/" +
-					"airplane_body_diffuse_v1_my.jpg");
-	private final Mesh barnModel = ModelLoader.loadModel(
-            new File("src/main/resources/models/saray/my/saray.obj").getAbsolutePath(), new File("src/main/resources/models/saray/my/cottage_diffuse.png").getAbsolutePath());
-    private final Mesh platzModel = ModelLoader.loadModel(
-			new File("src/main/resources/models/1/94-format/Container.obj").getAbsolutePath(), new File("src/main/resources/models/1/44-container_textures/textures_container/Container_DiffuseMap.jpg").getAbsolutePath());
-	private final Mesh houseModel = ModelLoader.loadModel(
-			new File("src/main/resources/models/2/45-cottage_free_other/Cottage_FREE.3DS").getAbsolutePath(),
-			new File("src/main/resources/models/2/82-textures_cottage_dirt/Cottage_Dirt/Cottage_Dirt_Base_Color.png").getAbsolutePath());
-	private final Mesh skyBoxModel = ModelLoader.loadModel(new File("src/main/resources/models/skybox/untitled.obj").getAbsolutePath(),
-			new File("src/main/resources/models/skybox/3.png").getAbsolutePath());
-	private final Mesh dodecaedrModel = ModelLoader.loadModel(new File("src/main/resources/models/dodecaedr/dod.obj").getAbsolutePath(),
-			new File("src/main/resources/models/dodecaedr/9.jpg").getAbsolutePath());
-	private final GameObject airplane = new GameObject(
-			new Vector3f(-185f, -412f, 42f),
-			new Vector3f(0, 0, 0),
-			new Vector3f(0.1f, 0.1f, 0.1f),
-			airplaneModel);
-	private final GameObject barn = new GameObject(
-			new Vector3f(-70f, 70.5f, 34.5f),
-			new Vector3f(1.54f, -0.1f, 0),
-			new Vector3f(3f, 3f, 3f),
-			barnModel);
-    private final GameObject platz = new GameObject(
-            new Vector3f(-110.6f, -100.5f, 15f),
-            new Vector3f(1.54f, 0f, 0),
-            new Vector3f(1.08f, .1f, 1.1f),
-            platzModel);
-	private final GameObject house = new GameObject(
-			new Vector3f(-70f, -64.2f, 34.55f),
-			new Vector3f(1.57f, -0.04f, 0),
-			new Vector3f(0.1f, 0.1f, 0.1f),
-			houseModel);
-	private final GameObject skyBox = new GameObject(
-			new Vector3f(0, 0, 0),
-			new Vector3f(0,0,0),
-			new Vector3f(900f, 900f, 900f),
-			skyBoxModel);
-	private final GameObject dodecaedr = new GameObject(
-			new Vector3f(-125, 100f, 30.3f),
-			new Vector3f(0,0,0),
-			new Vector3f(8f, 8f, 8f),
-			dodecaedrModel);
+	private AssetLoader assets;
+	private Mesh airplaneModel, barnModel, platzModel, houseModel, skyBoxModel, dodecaedrModel;
+	private GameObject airplane, barn, platz, house, skyBox, dodecaedr;
+	/**
+	 * Индекс сцены и номера листьев объектов в нём; скайбокс рисуется отдельно и в индекс не входит
+	 */
+	private final SpatialIndex<GameObject> scene = new SpatialIndex<>(5f);
+	private GameObject[] sceneObjects;
+	/**
+	 * Иерархия преобразований объектов сцены; точечный свет - узел внутри дома
+	 */
+	private final SceneGraph sceneGraph = new SceneGraph();
+	private int houseLightNode;
+	/**
+	 * Рой вращающихся додекаэдров для нагрузочной проверки: -Dengine.entities=100000
+	 */
+	private final EntityStore entities = new EntityStore();
+	private int[] sceneProxies;
+	private final Vector3f boundsMin = new Vector3f(), boundsMax = new Vector3f();
 	private final Camera camera = new Camera(new Vector3f(-158f, 0, 545f), new Vector3f(-1.35f, -15.27f, 0));
+	/**
+	 * Камера кадра: положение camera, интерполированное между шагами симуляции
+	 */
+	private final Camera renderCamera = new Camera(new Vector3f(), new Vector3f());
+	/**
+	 * Шаги симуляции; -Dengine.simThread=true выносит их в отдельный поток, -Dengine.vsync=false снимает
+	 * ограничение частоты кадров
+	 */
+	private GameLoop loop;
+	/**
+	 * Запросы из шага симуляции, которые выполняет поток окна
+	 */
+	private volatile boolean closeRequested, fullscreenRequested;
 	private DirectionalLight directionalLight;
 	private Fog fog;
 
@@ -84,11 +81,29 @@ public class Main implements Runnable {
 	}
 
 	private void init() {
+		assets = new AssetLoader();
+		Future<Mesh> airplaneFuture = assets.loadModel(
+				"src/main/resources/models/6/airplane_v2_L2.123c71795678-4b63-46c4-b2c6-549c45f4c806/my.obj",
+				"src/main/resources/models/6/airplane_v2_L2.123c71795678-4b63-46c4-b2c6-549c45f4c806/" +
+						"airplane_body_diffuse_v1_my.jpg");
+		Future<Mesh> barnFuture = assets.loadModel(
+				new File("src/main/resources/models/saray/my/saray.obj").getAbsolutePath(), new File("src/main/resources/models/saray/my/cottage_diffuse.png").getAbsolutePath());
+		Future<Mesh> platzFuture = assets.loadModel(
+				new File("src/main/resources/models/1/94-format/Container.obj").getAbsolutePath(), new File("src/main/resources/models/1/44-container_textures/textures_container/Container_DiffuseMap.jpg").getAbsolutePath());
+		Future<Mesh> houseFuture = assets.loadModel(
+				new File("src/main/resources/models/2/45-cottage_free_other/Cottage_FREE.3DS").getAbsolutePath(),
+				new File("src/main/resources/models/2/82-textures_cottage_dirt/Cottage_Dirt/Cottage_Dirt_Base_Color.png").getAbsolutePath());
+		Future<Mesh> skyBoxFuture = assets.loadModel(new File("src/main/resources/models/skybox/untitled.obj").getAbsolutePath(),
+				new File("src/main/resources/models/skybox/3.png").getAbsolutePath());
+		Future<Mesh> dodecaedrFuture = assets.loadModel(new File("src/main/resources/models/dodecaedr/dod.obj").getAbsolutePath(),
+				new File("src/main/resources/models/dodecaedr/9.jpg").getAbsolutePath());
+
 		int WIDTH = 1280;
 		int HEIGHT = 760;
 		fog = new Fog(true, new Vector3f(0.5f, 0.5f, 0.5f), 0.3f);
 		window = new Window(WIDTH, HEIGHT, "Курсовая");
-		shader = new Shader("/shaders/mainVertex.glsl", "/shaders/mainFragment.glsl");
+		window.setVSync(!"false".equals(System.getProperty("engine.vsync")));
+		shaders = new ShaderVariants("/shaders/mainVertex.glsl", "/shaders/mainFragment.glsl");
 		shaderSkybox = new Shader("/shaders/skyboxVertex.glsl", "/shaders/skyboxFragment.glsl");
 
 		Vector3f lightColour = new Vector3f(1, 1, 1);
@@ -97,11 +112,50 @@ public class Main implements Runnable {
 		directionalLight = new DirectionalLight(lightColour, lightPosition, lightIntensity);
 
 		ambientLight = new Vector3f(.3f, .3f, .3f);
-		renderer = new Renderer(window, shader, shaderSkybox);
+		renderer = new Renderer(window, shaders, shaderSkybox);
 
 		window.setBackgroundColor(1.0f, 0.5f, 0);
 		window.create();
 
+		assets.uploadAll();
+		airplaneModel = getModel(airplaneFuture);
+		barnModel = getModel(barnFuture);
+		platzModel = getModel(platzFuture);
+		houseModel = getModel(houseFuture);
+		skyBoxModel = getModel(skyBoxFuture);
+		dodecaedrModel = getModel(dodecaedrFuture);
+
+		airplane = new GameObject(
+				new Vector3f(-185f, -412f, 42f),
+				new Vector3f(0, 0, 0),
+				new Vector3f(0.1f, 0.1f, 0.1f),
+				airplaneModel);
+		barn = new GameObject(
+				new Vector3f(-70f, 70.5f, 34.5f),
+				new Vector3f(1.54f, -0.1f, 0),
+				new Vector3f(3f, 3f, 3f),
+				barnModel);
+		platz = new GameObject(
+				new Vector3f(-110.6f, -100.5f, 15f),
+				new Vector3f(1.54f, 0f, 0),
+				new Vector3f(1.08f, .1f, 1.1f),
+				platzModel);
+		house = new GameObject(
+				new Vector3f(-70f, -64.2f, 34.55f),
+				new Vector3f(1.57f, -0.04f, 0),
+				new Vector3f(0.1f, 0.1f, 0.1f),
+				houseModel);
+		skyBox = new GameObject(
+				new Vector3f(0, 0, 0),
+				new Vector3f(0,0,0),
+				new Vector3f(900f, 900f, 900f),
+				skyBoxModel);
+		dodecaedr = new GameObject(
+				new Vector3f(-125, 100f, 30.3f),
+				new Vector3f(0,0,0),
+				new Vector3f(8f, 8f, 8f),
+				dodecaedrModel);
+
 		airplaneModel.setMaterial(new Material(airplaneModel.getTexture(), 1f));
 		barnModel.setMaterial(new Material(barnModel.getTexture(), 1f));
 		platzModel.setMaterial(new Material(platzModel.getTexture(), 1f));
@@ -109,42 +163,69 @@ public class Main implements Runnable {
 		skyBoxModel.setMaterial(new Material(skyBoxModel.getTexture(), 1f));
 		dodecaedrModel.setMaterial(new Material(dodecaedrModel.getTexture(), 1f));
 
-		airplaneModel.create();
-		barnModel.create();
-		platzModel.create();
-		houseModel.create();
-        skyBoxModel.create();
-		dodecaedrModel.create();
-		shader.create();
+		sceneObjects = new GameObject[] {airplane, barn, platz, house, dodecaedr};
+		for (GameObject sceneObject : sceneObjects) sceneObject.attach(sceneGraph, null);
+		houseLightNode = sceneGraph.add(house.getNode());
+		sceneGraph.update();
+		// свет ставится в мировую точку внутри дома, дальше он движется вместе с домом
+		Vector3f houseLightPosition = house.getModelMatrix().invert(new Matrix4f())
+				.transformPosition(new Vector3f(-110f, -134.3f, 54.5f));
+		sceneGraph.setLocal(houseLightNode, houseLightPosition, new Vector3f(), new Vector3f(1, 1, 1));
+		sceneGraph.update();
+		sceneGraph.getWorldPosition(houseLightNode, renderer.getPointLight().getPosition());
+
+		spawnEntities(Integer.getInteger("engine.entities", 0));
+
+		sceneProxies = new int[sceneObjects.length];
+		for (int i = 0; i < sceneObjects.length; i++) {
+			sceneObjects[i].getWorldAabb(sceneObjects[i].getModelMatrix(), boundsMin, boundsMax);
+			sceneProxies[i] = scene.insert(sceneObjects[i], boundsMin, boundsMax);
+		}
+
 		shaderSkybox.create();
+		renderer.create();
+	}
+
+	/**
+	 * Расставляет count додекаэдров сеткой над сценой; каждый вращается и медленно дрейфует
+	 */
+	private void spawnEntities(int count) {
+		Random random = new Random(1);
+		int side = (int) Math.ceil(Math.cbrt(count));
+		for (int i = 0; i < count; i++) {
+			int entity = entities.create(dodecaedrModel);
+			entities.setPosition(entity, -400f + (i % side) * 800f / side,
+					-400f + (i / side % side) * 800f / side, 60f + (i / side / side) * 400f / side);
+			entities.setScale(entity, 2f, 2f, 2f);
+			entities.setVelocity(entity, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, 0);
+			entities.setAngularVelocity(entity, random.nextFloat(), random.nextFloat(), random.nextFloat());
+		}
+	}
+
+	private static Mesh getModel(Future<Mesh> future) {
 		try {
-			shader.createUniform("texture_sampler");
-			shader.createMaterialUniform("material");
-			shader.createPointLightUniform("pointLight");
-			shader.createDirectionalLightUniform("directionalLight");
-			shader.createFogUniform("fog");
-			shader.createUniform("ambientLight");
-			shader.createUniform("specularPower");
-			shader.createUniform("u_ModelMatrix");
-			shader.createUniform("view");
-			shader.createUniform("projection");
-
-			shaderSkybox.createUniform("projectionMatrix");
-			shaderSkybox.createUniform("modelViewMatrix");
-			shaderSkybox.createUniform("texture_sampler");
-			shaderSkybox.createUniform("ambientLight");
-		} catch (Exception e) {
-			e.printStackTrace();
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IllegalStateException("Model wasn't loaded", e);
 		}
 	}
 
 	public void run() {
 		init();
-		while (!window.shouldClose() && !Input.isKeyDown(GLFW.GLFW_KEY_ESCAPE)) {
-			update();
-			render();
-			if (Input.isKeyDown(GLFW.GLFW_KEY_F11)) window.setFullscreen(!window.isFullscreen());
+		loop = new GameLoop(this::tick, Boolean.getBoolean("engine.simThread"));
+		loop.start();
+		while (!window.shouldClose() && !closeRequested) {
+			Profiler.beginFrame();
+			window.update();
+			render(loop.advance());
+			Profiler.endFrame();
+			window.swapBuffers();
+			if (fullscreenRequested) {
+				fullscreenRequested = false;
+				window.setFullscreen(!window.isFullscreen());
+			}
 		}
+		loop.stop();
 		close();
 	}
 
@@ -152,9 +233,18 @@ public class Main implements Runnable {
     private boolean flag = true;
     private boolean flag1 = true;
     private boolean start = false;
-	private void update() {
+	/**
+	 * Один шаг симуляции длиной GameLoop.TICK_SECONDS; скорости ниже заданы на шаг
+	 */
+	private void tick() {
+		Profiler.begin("update");
 	    float speed = 4f;
-		window.update();
+		camera.storePreviousState();
+		for (GameObject sceneObject : sceneObjects) sceneObject.storePreviousState();
+		sceneGraph.storePreviousState();
+		Input.beginTick(loop.getTickTime());
+		if (Input.isKeyDown(GLFW.GLFW_KEY_ESCAPE)) closeRequested = true;
+		if (Input.wasKeyPressed(GLFW.GLFW_KEY_F11)) fullscreenRequested = true;
 		camera.update();
 //		if (Input.isKeyDown(GLFW.GLFW_KEY_LEFT)) airplane.getRotation().x += 0.1f;
 //		if (Input.isKeyDown(GLFW.GLFW_KEY_RIGHT)) airplane.getRotation().x -= 0.1f;
@@ -201,6 +291,17 @@ public class Main implements Runnable {
             airplane.getRotation().z -= 0.0005f;
         }
 
+		/**
+		 * Цвет точечного источника света в доме можно настроить кнопками прямо на сцене
+		 */
+		Vector3f lightColour = renderer.getPointLight().getColor();
+		if (Input.isKeyDown(GLFW.GLFW_KEY_LEFT)) lightColour.x += 0.1f;
+		if (Input.isKeyDown(GLFW.GLFW_KEY_RIGHT)) lightColour.x -= 0.1f;
+		if (Input.isKeyDown(GLFW.GLFW_KEY_UP)) lightColour.y += 0.1f;
+		if (Input.isKeyDown(GLFW.GLFW_KEY_DOWN)) lightColour.y -= 0.1f;
+		if (Input.isKeyDown(GLFW.GLFW_KEY_V)) lightColour.z += 0.1f;
+		if (Input.isKeyDown(GLFW.GLFW_KEY_B)) lightColour.z -= 0.1f;
+
 		float lightAngle = -85;
 		float factor = 1 - (float) (Math.abs(lightAngle) - 80) / 10.0f;
 		directionalLight.setIntensity(factor);
@@ -210,19 +311,54 @@ public class Main implements Runnable {
 		double angRad = Math.toRadians(lightAngle);
 		directionalLight.getDirection().x = (float) Math.sin(angRad);
 		directionalLight.getDirection().y = (float) Math.cos(angRad);
+
+		sceneGraph.update();
+		sceneGraph.getWorldPosition(houseLightNode, renderer.getPointLight().getPosition());
+		EntitySystems.move(entities, GameLoop.TICK_SECONDS);
+		for (int i = 0; i < sceneObjects.length; i++) {
+			sceneObjects[i].getWorldAabb(sceneObjects[i].getModelMatrix(), boundsMin, boundsMax);
+			scene.move(sceneProxies[i], boundsMin, boundsMax);
+		}
+		Profiler.end();
 	}
 
-	private void render() {
-		renderer.renderMesh(airplane, camera, directionalLight, ambientLight, fog);
-		renderer.renderMesh(barn, camera, directionalLight, ambientLight, fog);
-		renderer.renderMesh(platz, camera, directionalLight, ambientLight, fog);
-		renderer.renderMesh(house, camera, directionalLight, ambientLight, fog);
-		renderer.renderMesh(dodecaedr, camera, directionalLight, ambientLight, fog);
-		renderer.renderSkyBox(skyBox, camera);
-		window.swapBuffers();
+	/**
+	 * Рисует кадр между двумя последними шагами симуляции. Сцена читается под блокировкой состояния,
+	 * чтобы поток симуляции не менял её посреди кадра; обмен буферов идёт уже после, в run().
+	 *
+	 * @param alpha доля от предыдущего шага к текущему
+	 */
+	private void render(float alpha) {
+		Profiler.begin("render");
+		loop.getStateLock().lock();
+		try {
+			camera.interpolate(alpha, renderCamera);
+			renderer.beginFrame(renderCamera, directionalLight, ambientLight, fog, alpha);
+			Profiler.begin("culling");
+			renderer.submitVisible(scene);
+			renderer.submitEntities(entities);
+			Profiler.end();
+			Profiler.begin("renderMesh");
+			renderer.flush();
+			Profiler.end();
+			Profiler.begin("skybox");
+			renderer.renderSkyBox(skyBox);
+			Profiler.end();
+		} finally {
+			loop.getStateLock().unlock();
+		}
+		window.setRenderStats(renderer.getDrawCalls(), renderer.getStateChanges(),
+				renderer.getVisibleObjects(), renderer.getCulledObjects());
+		Profiler.end();
 	}
 
 	private void close() {
+		if (Boolean.getBoolean("engine.profile")) {
+			Profiler.writeCsv(Paths.get("profile.csv"));
+			Profiler.writeJson(Paths.get("profile.json"));
+		}
+		Profiler.destroy();
+		assets.destroy();
 		window.destroy();
 		airplaneModel.destroy();
 		barnModel.destroy();
@@ -230,8 +366,8 @@ public class Main implements Runnable {
 		houseModel.destroy();
         skyBoxModel.destroy();
 		dodecaedrModel.destroy();
-		shader.destroy();
 		shaderSkybox.destroy();
+		renderer.destroy();
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,88 @@
+package main.java.engine.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Изображение в блочном формате BCn со всей цепочкой mip-уровней, уложенных подряд от нулевого.
+ * Данные либо выделены кодировщиком (и освобождаются в free()), либо отображены из файла кэша.
+ */
+public class CompressedImage {
+	private final TextureCompressor.Format format;
+	private final int width, height, levels;
+	private final boolean owned;
+	private ByteBuffer data;
+
+	public CompressedImage(TextureCompressor.Format format, int width, int height, int levels, ByteBuffer data, boolean owned) {
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+		this.data = data;
+		this.owned = owned;
+	}
+
+	/**
+	 * Число уровней полной цепочки, до 1x1 включительно
+	 */
+	public static int getLevelCount(int width, int height) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+	}
+
+	public static int getLevelSize(TextureCompressor.Format format, int width, int height, int level) {
+		int levelWidth = Math.max(1, width >> level), levelHeight = Math.max(1, height >> level);
+		return ((levelWidth + 3) / 4) * ((levelHeight + 3) / 4) * format.getBlockSize();
+	}
+
+	public static int getDataSize(TextureCompressor.Format format, int width, int height, int levels) {
+		int size = 0;
+		for (int level = 0; level < levels; level++) size += getLevelSize(format, width, height, level);
+		return size;
+	}
+
+	/**
+	 * @return блоки одного mip-уровня, готовые для glCompressedTextureSubImage2D
+	 */
+	public ByteBuffer getLevel(int level) {
+		int offset = 0;
+		for (int i = 0; i < level; i++) offset += getLevelSize(format, width, height, i);
+		ByteBuffer view = data.duplicate();
+		view.position(offset);
+		view.limit(offset + getLevelSize(format, width, height, level));
+		return view.slice();
+	}
+
+	public int getLevelWidth(int level) {
+		return Math.max(1, width >> level);
+	}
+
+	public int getLevelHeight(int level) {
+		return Math.max(1, height >> level);
+	}
+
+	public void free() {
+		if (owned && data != null) MemoryUtil.memFree(data);
+		data = null;
+	}
+
+	public TextureCompressor.Format getFormat() {
+		return format;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	public ByteBuffer getData() {
+		return data;
+	}
+}
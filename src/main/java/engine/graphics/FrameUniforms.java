@@ -0,0 +1,141 @@
+package main.java.engine.graphics;
+
+import main.java.engine.objects.Camera;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+/**
+ * Uniform-блоки std140 с данными, общими для всего кадра: камера, источники света и туман.
+ *
+ * Блоки привязаны к фиксированным точкам, поэтому их видят все программы, где они объявлены
+ * (mainVertex/mainFragment и skybox). Содержимое собирается один раз за кадр и отправляется
+ * в OpenGL только если изменилось.
+ */
+public class FrameUniforms {
+	public static final String CAMERA_BLOCK = "CameraBlock";
+	public static final String LIGHT_BLOCK = "LightBlock";
+	public static final String FOG_BLOCK = "FogBlock";
+	public static final int CAMERA_BINDING = 0;
+	public static final int LIGHT_BINDING = 1;
+	public static final int FOG_BINDING = 2;
+
+	private static final int CAMERA_SIZE = 144;
+	private static final int LIGHT_SIZE = 96;
+	private static final int FOG_SIZE = 32;
+
+	private final Block camera = new Block(CAMERA_BINDING, CAMERA_SIZE);
+	private final Block light = new Block(LIGHT_BINDING, LIGHT_SIZE);
+	private final Block fog = new Block(FOG_BINDING, FOG_SIZE);
+	private final Vector4f lightDirection = new Vector4f();
+	private Matrix4f view;
+
+	/**
+	 * Назначает программе точки привязки для тех блоков, которые в ней объявлены
+	 */
+	public static void bindBlocks(int programID) {
+		bindBlock(programID, CAMERA_BLOCK, CAMERA_BINDING);
+		bindBlock(programID, LIGHT_BLOCK, LIGHT_BINDING);
+		bindBlock(programID, FOG_BLOCK, FOG_BINDING);
+		bindBlock(programID, MaterialTable.BLOCK, MaterialTable.BINDING);
+	}
+
+	private static void bindBlock(int programID, String name, int binding) {
+		int index = glGetUniformBlockIndex(programID, name);
+		if (index != GL_INVALID_INDEX) glUniformBlockBinding(programID, index, binding);
+	}
+
+	public void create() {
+		camera.create();
+		light.create();
+		fog.create();
+	}
+
+	public void update(Camera camera, Matrix4f projection, PointLight pointLight, DirectionalLight directionalLight,
+					   Vector3f ambientLight, Fog fog) {
+		view = camera.getViewMatrix();
+
+		// CameraBlock: mat4 projection, mat4 view, vec3 camera_pos
+		ByteBuffer data = this.camera.data;
+		projection.get(0, data);
+		view.get(64, data);
+		putVec3(data, 128, camera.getPosition());
+		this.camera.upload();
+
+		// LightBlock: PointLight pointLight, DirectionalLight directionalLight, vec3 ambientLight
+		data = light.data;
+		putVec3(data, 0, pointLight.getColor());
+		putVec3(data, 16, pointLight.getPosition());
+		data.putFloat(28, pointLight.getIntensity());
+		data.putFloat(32, pointLight.getAttenuation().getConstant());
+		data.putFloat(36, pointLight.getAttenuation().getLinear());
+		data.putFloat(40, pointLight.getAttenuation().getExponent());
+		putVec3(data, 48, directionalLight.getColor());
+		lightDirection.set(directionalLight.getDirection(), 0).mul(view);
+		data.putFloat(64, lightDirection.x).putFloat(68, lightDirection.y).putFloat(72, lightDirection.z);
+		data.putFloat(76, directionalLight.getIntensity());
+		putVec3(data, 80, ambientLight);
+		light.upload();
+
+		// FogBlock: Fog fog
+		data = this.fog.data;
+		data.putInt(0, fog.isActive() ? 1 : 0);
+		putVec3(data, 16, fog.getColour());
+		data.putFloat(28, fog.getDensity());
+		this.fog.upload();
+	}
+
+	private static void putVec3(ByteBuffer buffer, int offset, Vector3f value) {
+		buffer.putFloat(offset, value.x).putFloat(offset + 4, value.y).putFloat(offset + 8, value.z);
+	}
+
+	/**
+	 * @return матрица вида, посчитанная в последнем update()
+	 */
+	public Matrix4f getView() {
+		return view;
+	}
+
+	public void destroy() {
+		camera.destroy();
+		light.destroy();
+		fog.destroy();
+	}
+
+	private static class Block {
+		private final int binding;
+		private final ByteBuffer data, uploaded;
+		private int buffer;
+		private boolean empty = true;
+
+		private Block(int binding, int size) {
+			this.binding = binding;
+			data = MemoryUtil.memCalloc(size);
+			uploaded = MemoryUtil.memCalloc(size);
+		}
+
+		private void create() {
+			buffer = glCreateBuffers();
+			glNamedBufferData(buffer, data.capacity(), GL_DYNAMIC_DRAW);
+			glBindBufferBase(GL_UNIFORM_BUFFER, binding, buffer);
+		}
+
+		private void upload() {
+			if (!empty && data.equals(uploaded)) return;
+			glNamedBufferSubData(buffer, 0, data);
+			MemoryUtil.memCopy(data, uploaded);
+			empty = false;
+		}
+
+		private void destroy() {
+			glDeleteBuffers(buffer);
+			MemoryUtil.memFree(data);
+			MemoryUtil.memFree(uploaded);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package main.java.engine.graphics;
+
+import org.joml.Matrix4f;
+
+/**
+ * Отсечение по пирамиде видимости. Плоскости извлекаются из projection * view (метод Гриббса-Хартмана),
+ * сферы проверяются пачкой по плоскому массиву x, y, z, r без объектов на проверку.
+ */
+public class FrustumCuller {
+	public static final int SPHERE_FLOATS = 4;
+	public static final int OUTSIDE = 0, INTERSECTS = 1, INSIDE = 2;
+
+	/**
+	 * Шесть плоскостей (a, b, c, d) с нормалями внутрь: левая, правая, нижняя, верхняя, ближняя, дальняя
+	 */
+	private final float[] planes = new float[6 * 4];
+	private final Matrix4f viewProjection = new Matrix4f();
+	private int visible, culled;
+
+	public void update(Matrix4f projection, Matrix4f view) {
+		Matrix4f m = projection.mul(view, viewProjection);
+		setPlane(0, m.m03() + m.m00(), m.m13() + m.m10(), m.m23() + m.m20(), m.m33() + m.m30());
+		setPlane(1, m.m03() - m.m00(), m.m13() - m.m10(), m.m23() - m.m20(), m.m33() - m.m30());
+		setPlane(2, m.m03() + m.m01(), m.m13() + m.m11(), m.m23() + m.m21(), m.m33() + m.m31());
+		setPlane(3, m.m03() - m.m01(), m.m13() - m.m11(), m.m23() - m.m21(), m.m33() - m.m31());
+		setPlane(4, m.m03() + m.m02(), m.m13() + m.m12(), m.m23() + m.m22(), m.m33() + m.m32());
+		setPlane(5, m.m03() - m.m02(), m.m13() - m.m12(), m.m23() - m.m22(), m.m33() - m.m32());
+	}
+
+	private void setPlane(int plane, float a, float b, float c, float d) {
+		float length = (float) Math.sqrt(a * a + b * b + c * c);
+		planes[plane * 4] = a / length;
+		planes[plane * 4 + 1] = b / length;
+		planes[plane * 4 + 2] = c / length;
+		planes[plane * 4 + 3] = d / length;
+	}
+
+	/**
+	 * Проверяет count сфер из массива spheres (по SPHERE_FLOATS float на сферу) и записывает результат в visibility.
+	 * Счётчики видимых и отсечённых накапливаются до resetCounters().
+	 *
+	 * @return число видимых сфер
+	 */
+	public int cullSpheres(float[] spheres, int count, boolean[] visibility) {
+		int result = 0;
+		for (int i = 0; i < count; i++) {
+			boolean inside = testSphere(spheres[i * 4], spheres[i * 4 + 1], spheres[i * 4 + 2], spheres[i * 4 + 3]);
+			visibility[i] = inside;
+			if (inside) result++;
+		}
+		visible += result;
+		culled += count - result;
+		return result;
+	}
+
+	public boolean testSphere(float x, float y, float z, float radius) {
+		for (int p = 0; p < planes.length; p += 4) {
+			if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Классифицирует AABB относительно пирамиды по ближней и дальней к каждой плоскости вершине
+	 *
+	 * @return OUTSIDE, INTERSECTS или INSIDE
+	 */
+	public int testAabb(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		int result = INSIDE;
+		for (int p = 0; p < planes.length; p += 4) {
+			float a = planes[p], b = planes[p + 1], c = planes[p + 2], d = planes[p + 3];
+			float far = a * (a > 0 ? maxX : minX) + b * (b > 0 ? maxY : minY) + c * (c > 0 ? maxZ : minZ) + d;
+			if (far < 0) return OUTSIDE;
+			float near = a * (a > 0 ? minX : maxX) + b * (b > 0 ? minY : maxY) + c * (c > 0 ? minZ : maxZ) + d;
+			if (near < 0) result = INTERSECTS;
+		}
+		return result;
+	}
+
+	/**
+	 * Учитывает в счётчиках результат отсечения, выполненного вне cullSpheres (например, запросом к индексу сцены)
+	 */
+	public void count(int visible, int culled) {
+		this.visible += visible;
+		this.culled += culled;
+	}
+
+	public void resetCounters() {
+		visible = 0;
+		culled = 0;
+	}
+
+	public int getVisible() {
+		return visible;
+	}
+
+	public int getCulled() {
+		return culled;
+	}
+}
@@ -15,6 +15,8 @@ public class Material {
 
     private Texture texture;
 
+    private int slot = -1;
+
     public Material() {
         this.ambientColour = DEFAULT_COLOUR;
         this.diffuseColour = DEFAULT_COLOUR;
@@ -86,4 +88,22 @@ public class Material {
     public void setTexture(Texture texture) {
         this.texture = texture;
     }
+
+    /**
+     * @return слой массива текстур, в котором лежит текстура материала
+     */
+    public int getLayer() {
+        return texture != null ? texture.getLayer() : 0;
+    }
+
+    /**
+     * @return номер материала в MaterialTable или -1, если материал ещё не рисовался
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
 }
@@ -0,0 +1,87 @@
+package main.java.engine.graphics;
+
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+/**
+ * Параметры всех материалов в uniform-блоке std140 MaterialBlock. Материал получает номер при первой
+ * отрисовке, а экземпляр передаёт этот номер атрибутом вместе с матрицей модели, поэтому объекты с разными
+ * материалами и текстурами одного массива рисуются одним вызовом.
+ *
+ * Раскладка записи (80 байт): vec4 ambient, vec4 diffuse, vec4 specular, vec4 uvTransform,
+ * int hasTexture, int layer, float reflectance.
+ */
+public class MaterialTable {
+	public static final String BLOCK = "MaterialBlock";
+	public static final int BINDING = 3;
+	/** размер массива materials в mainFragment.glsl */
+	public static final int MAX_MATERIALS = 128;
+	private static final int MATERIAL_SIZE = 80;
+	private static final Vector4f IDENTITY_UV = new Vector4f(1, 1, 0, 0);
+
+	private final List<Material> materials = new ArrayList<>();
+	private final ByteBuffer data = MemoryUtil.memCalloc(MAX_MATERIALS * MATERIAL_SIZE);
+	private final ByteBuffer uploaded = MemoryUtil.memCalloc(MAX_MATERIALS * MATERIAL_SIZE);
+	private int buffer, uploadedCount;
+
+	public void create() {
+		buffer = glCreateBuffers();
+		glNamedBufferData(buffer, data.capacity(), GL_DYNAMIC_DRAW);
+		glBindBufferBase(GL_UNIFORM_BUFFER, BINDING, buffer);
+	}
+
+	/**
+	 * @return номер материала в блоке; новый материал получает следующий свободный
+	 */
+	public int getSlot(Material material) {
+		int slot = material.getSlot();
+		if (slot >= 0) return slot;
+		if (materials.size() == MAX_MATERIALS) throw new IllegalStateException("Too many materials: " + MAX_MATERIALS);
+		slot = materials.size();
+		materials.add(material);
+		material.setSlot(slot);
+		return slot;
+	}
+
+	/**
+	 * Собирает записи всех материалов и отправляет их в OpenGL, только если что-то изменилось
+	 */
+	public void upload() {
+		int count = materials.size();
+		for (int i = 0; i < count; i++) {
+			Material material = materials.get(i);
+			int offset = i * MATERIAL_SIZE;
+			Texture texture = material.getTexture();
+			material.getAmbientColour().get(offset, data);
+			material.getDiffuseColour().get(offset + 16, data);
+			material.getSpecularColour().get(offset + 32, data);
+			(texture != null ? texture.getUvTransform() : IDENTITY_UV).get(offset + 48, data);
+			data.putInt(offset + 64, material.isTextured() ? 1 : 0);
+			data.putInt(offset + 68, material.getLayer());
+			data.putFloat(offset + 72, material.getReflectance());
+		}
+
+		int size = count * MATERIAL_SIZE;
+		data.limit(size);
+		uploaded.limit(size);
+		if (count != uploadedCount || !data.equals(uploaded)) {
+			glNamedBufferSubData(buffer, 0, data);
+			MemoryUtil.memCopy(data, uploaded);
+			uploadedCount = count;
+		}
+		data.clear();
+		uploaded.clear();
+	}
+
+	public void destroy() {
+		glDeleteBuffers(buffer);
+		MemoryUtil.memFree(data);
+		MemoryUtil.memFree(uploaded);
+	}
+}
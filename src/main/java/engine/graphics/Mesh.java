@@ -1,126 +1,315 @@
 package main.java.engine.graphics;
 
+import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryUtil;
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.Arrays;
 
 import static org.lwjgl.opengl.GL46C.*;
 
 public class Mesh {
-	private final Vertex[] vertices;
-	private final int[] indices;
+	/**
+	 * Чередующийся формат вершины: позиция (3), нормаль (3), текстурные координаты (2)
+	 */
+	public static final int POSITION_OFFSET = 0;
+	public static final int NORMAL_OFFSET = 3 * Float.BYTES;
+	public static final int TEXTURE_OFFSET = 6 * Float.BYTES;
+	public static final int VERTEX_FLOATS = 8;
+	public static final int VERTEX_STRIDE = VERTEX_FLOATS * Float.BYTES;
+
+	/**
+	 * Данные экземпляра: матрица модели (четыре столбца vec4 в атрибутах 4-7) и номер материала
+	 * в MaterialTable (int в атрибуте 8). Читаются из буфера экземпляров, который Renderer подключает
+	 * к точке привязки INSTANCE_BINDING.
+	 */
+	public static final int INSTANCE_ATTRIBUTE = 4;
+	public static final int INSTANCE_MATERIAL_ATTRIBUTE = 8;
+	public static final int INSTANCE_BINDING = 1;
+	public static final int INSTANCE_MATERIAL_OFFSET = 16 * Float.BYTES;
+	public static final int INSTANCE_STRIDE = INSTANCE_MATERIAL_OFFSET + 4 * Integer.BYTES;
+
+	private MeshData data;
+	private final int vertexCount, indexCount, indexType;
+	private final Submesh[] submeshes;
+	private final Material[] materials;
+	private final Vector3f min, max, center;
+	private final float radius;
+	private ByteBuffer vertexData, indexData;
+	private boolean gpuResident = true;
 	private final main.java.engine.graphics.Texture texture;
-	private int vao, pbo, ibo, cbo, tbo, vnbo;
-	private Material material;
+	private int vao, vbo, ibo;
+	private IntBuffer drawCounts, drawBaseVertices;
+	private PointerBuffer drawOffsets;
 
-	public Mesh(Vertex[] vertices, int[] indices, Texture texture) {
-		this.vertices = vertices;
-		this.indices = indices;
+	/**
+	 * @throws IllegalArgumentException если в данных нет ни одной части
+	 */
+	public Mesh(MeshData data, Texture texture) {
+		requireSubmeshes(data.getSubmeshes());
+		this.data = data;
+		this.vertexCount = data.getVertexCount();
+		this.indexCount = data.getIndexCount();
+		this.indexType = getIndexType(data.getMaxSubmeshVertexCount());
+		this.submeshes = data.getSubmeshes();
+		this.materials = new Material[data.getMaterialCount()];
+		this.min = new Vector3f(data.getMin());
+		this.max = new Vector3f(data.getMax());
+		this.center = new Vector3f(min).add(max).mul(0.5f);
+		this.radius = data.getRadius();
 		this.texture = texture;
 	}
 
-	public void create() {
-		texture.create();
+	/**
+	 * Меш из уже упакованных данных (например, отображённых в память из кэша).
+	 * Буферы передаются в glNamedBufferData как есть и отпускаются после загрузки.
+	 */
+	public Mesh(ByteBuffer vertexData, ByteBuffer indexData, int vertexCount, int indexCount, int indexType,
+				Submesh[] submeshes, int materialCount, Vector3f min, Vector3f max, float radius, Texture texture) {
+		requireSubmeshes(submeshes);
+		this.vertexData = vertexData;
+		this.indexData = indexData;
+		this.vertexCount = vertexCount;
+		this.indexCount = indexCount;
+		this.indexType = indexType;
+		this.submeshes = submeshes;
+		this.materials = new Material[materialCount];
+		this.min = min;
+		this.max = max;
+		this.center = new Vector3f(min).add(max).mul(0.5f);
+		this.radius = radius;
+		this.texture = texture;
+	}
+
+	/**
+	 * Меш без частей нечем рисовать, а getMaterial() и hasSingleMaterial() опираются на первую часть
+	 */
+	private static void requireSubmeshes(Submesh[] submeshes) {
+		if (submeshes.length == 0) throw new IllegalArgumentException("Mesh has no submeshes");
+	}
 
+	/**
+	 * Загружает геометрию в OpenGL. Текстура загружается отдельно (Texture.upload()),
+	 * до этого рисуется с заглушкой.
+	 */
+	public void create() {
 		vao = glCreateVertexArrays();
-		glBindVertexArray(vao);
-
-		FloatBuffer positionBuffer = MemoryUtil.memAllocFloat(vertices.length * 3);
-		float[] positionData = new float[vertices.length * 3];
-		for (int i = 0; i < vertices.length; i++) {
-			positionData[i * 3] = vertices[i].getPosition().x();
-			positionData[i * 3 + 1] = vertices[i].getPosition().y();
-			positionData[i * 3 + 2] = vertices[i].getPosition().z();
-		}
-		positionBuffer.put(positionData).flip();
+		vbo = glCreateBuffers();
+		ibo = glCreateBuffers();
+
+		if (vertexData != null) {
+			glNamedBufferData(vbo, vertexData, GL_STATIC_DRAW);
+			glNamedBufferData(ibo, indexData, GL_STATIC_DRAW);
+			vertexData = null;
+			indexData = null;
+		} else {
+			ByteBuffer vertexBuffer = MemoryUtil.memAlloc(vertexCount * VERTEX_STRIDE);
+			try {
+				data.putVertices(vertexBuffer);
+				vertexBuffer.flip();
+				glNamedBufferData(vbo, vertexBuffer, GL_STATIC_DRAW);
+			} finally {
+				MemoryUtil.memFree(vertexBuffer);
+			}
 
-		pbo = storeData(positionBuffer, 0, 3);
+			ByteBuffer indicesBuffer = MemoryUtil.memAlloc(indexCount * getIndexSize(indexType));
+			try {
+				putIndices(data.getIndices(), indexType, indicesBuffer);
+				indicesBuffer.flip();
+				glNamedBufferData(ibo, indicesBuffer, GL_STATIC_DRAW);
+			} finally {
+				MemoryUtil.memFree(indicesBuffer);
+			}
 
-		FloatBuffer vnormalBuffer = MemoryUtil.memAllocFloat(vertices.length * 3);
-		float[] vnormalData = new float[vertices.length * 3];
-		for (int i = 0; i < vertices.length; i++) {
-			vnormalData[i * 3] = vertices[i].getNormal().x();
-			vnormalData[i * 3 + 1] = vertices[i].getNormal().y();
-			vnormalData[i * 3 + 2] = vertices[i].getNormal().z();
+			if (gpuResident) data = null;
 		}
-		vnormalBuffer.put(vnormalData).flip();
 
-		vnbo = storeData(vnormalBuffer, 3, 3);
+		glVertexArrayVertexBuffer(vao, 0, vbo, 0, VERTEX_STRIDE);
+		setAttribute(0, 3, POSITION_OFFSET);
+		setAttribute(3, 3, NORMAL_OFFSET);
+		setAttribute(2, 2, TEXTURE_OFFSET);
+		glVertexArrayElementBuffer(vao, ibo);
+		for (int column = 0; column < 4; column++) {
+			glVertexArrayAttribFormat(vao, INSTANCE_ATTRIBUTE + column, 4, GL_FLOAT, false, column * 4 * Float.BYTES);
+			glVertexArrayAttribBinding(vao, INSTANCE_ATTRIBUTE + column, INSTANCE_BINDING);
+			glEnableVertexArrayAttrib(vao, INSTANCE_ATTRIBUTE + column);
+		}
+		glVertexArrayAttribIFormat(vao, INSTANCE_MATERIAL_ATTRIBUTE, 1, GL_INT, INSTANCE_MATERIAL_OFFSET);
+		glVertexArrayAttribBinding(vao, INSTANCE_MATERIAL_ATTRIBUTE, INSTANCE_BINDING);
+		glEnableVertexArrayAttrib(vao, INSTANCE_MATERIAL_ATTRIBUTE);
+		glVertexArrayBindingDivisor(vao, INSTANCE_BINDING, 1);
 
-		FloatBuffer textureBuffer = MemoryUtil.memAllocFloat(vertices.length * 2);
-		float[] textureData = new float[vertices.length * 2];
-		for (int i = 0; i < vertices.length; i++) {
-			textureData[i * 2] = vertices[i].getTextureCoord().x;
-			textureData[i * 2 + 1] = vertices[i].getTextureCoord().y;
+		// параметры для отрисовки всех частей одним glMultiDrawElementsBaseVertex
+		drawCounts = MemoryUtil.memAllocInt(submeshes.length);
+		drawBaseVertices = MemoryUtil.memAllocInt(submeshes.length);
+		drawOffsets = MemoryUtil.memAllocPointer(submeshes.length);
+		int indexSize = getIndexSize(indexType);
+		for (Submesh submesh : submeshes) {
+			drawCounts.put(submesh.getIndexCount());
+			drawBaseVertices.put(submesh.getBaseVertex());
+			drawOffsets.put((long) submesh.getIndexOffset() * indexSize);
 		}
-		textureBuffer.put(textureData).flip();
+		drawCounts.flip();
+		drawBaseVertices.flip();
+		drawOffsets.flip();
+	}
 
-		tbo = storeData(textureBuffer, 2, 2);
+	/**
+	 * @return самый узкий тип индексов, в который помещаются номера всех вершин
+	 */
+	public static int getIndexType(int vertexCount) {
+		if (vertexCount <= 0x100) return GL_UNSIGNED_BYTE;
+		if (vertexCount <= 0x10000) return GL_UNSIGNED_SHORT;
+		return GL_UNSIGNED_INT;
+	}
 
-		IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indices.length);
-		indicesBuffer.put(indices).flip();
+	public static int getIndexSize(int indexType) {
+		switch (indexType) {
+			case GL_UNSIGNED_BYTE: return Byte.BYTES;
+			case GL_UNSIGNED_SHORT: return Short.BYTES;
+			default: return Integer.BYTES;
+		}
+	}
 
-		ibo = glGenBuffers();
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ibo);
-		glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+	public static void putIndices(int[] indices, int indexType, ByteBuffer buffer) {
+		switch (indexType) {
+			case GL_UNSIGNED_BYTE:
+				for (int index : indices) buffer.put((byte) index);
+				break;
+			case GL_UNSIGNED_SHORT:
+				for (int index : indices) buffer.putShort((short) index);
+				break;
+			default:
+				for (int index : indices) buffer.putInt(index);
+		}
 	}
 
-	private int storeData(FloatBuffer buffer, int index, int size) {
-		int bufferID = glCreateBuffers();
-		glBindBuffer(GL_ARRAY_BUFFER, bufferID);
-		glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
-		glVertexAttribPointer(index, size, GL_FLOAT, false, 0, 0);
-		glBindBuffer(GL_ARRAY_BUFFER, 0);
-		return bufferID;
+	private void setAttribute(int index, int size, int offset) {
+		glVertexArrayAttribFormat(vao, index, size, GL_FLOAT, false, offset);
+		glVertexArrayAttribBinding(vao, index, 0);
+		glEnableVertexArrayAttrib(vao, index);
 	}
 
 	public void destroy() {
-		glDeleteBuffers(pbo);
-		glDeleteBuffers(cbo);
+		glDeleteBuffers(vbo);
 		glDeleteBuffers(ibo);
-		glDeleteBuffers(tbo);
-		glDeleteBuffers(vnbo);
 
 		glDeleteVertexArrays(vao);
 
+		MemoryUtil.memFree(drawCounts);
+		MemoryUtil.memFree(drawBaseVertices);
+		MemoryUtil.memFree(drawOffsets);
+
 		texture.destroy();
 	}
 
-	public Vertex[] getVertices() {
-		return vertices;
+	/**
+	 * @return геометрия на стороне CPU; null, если меш загружен из кэша
+	 * или уже создан в режиме gpuResident
+	 */
+	public MeshData getData() {
+		return data;
+	}
+
+	public boolean isGpuResident() {
+		return gpuResident;
+	}
+
+	/**
+	 * @param gpuResident освобождать ли копию геометрии в памяти после загрузки в OpenGL
+	 */
+	public void setGpuResident(boolean gpuResident) {
+		this.gpuResident = gpuResident;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getIndexCount() {
+		return indexCount;
 	}
 
-	public int[] getIndices() {
-		return indices;
+	public int getIndexType() {
+		return indexType;
+	}
+
+	public Vector3f getMin() {
+		return min;
+	}
+
+	public Vector3f getMax() {
+		return max;
+	}
+
+	/**
+	 * @return центр ограничивающей сферы в координатах модели (центр AABB)
+	 */
+	public Vector3f getCenter() {
+		return center;
+	}
+
+	public float getRadius() {
+		return radius;
+	}
+
+	public int getLodCount() {
+		return submeshes[0].getLodCount();
+	}
+
+	public Submesh[] getSubmeshes() {
+		return submeshes;
+	}
+
+	public IntBuffer getDrawCounts() {
+		return drawCounts;
+	}
+
+	public PointerBuffer getDrawOffsets() {
+		return drawOffsets;
+	}
+
+	public IntBuffer getDrawBaseVertices() {
+		return drawBaseVertices;
 	}
 
 	public Material getMaterial() {
-		return material;
+		return materials[submeshes[0].getMaterialIndex()];
 	}
 
-	public int getVAO() {
-		return vao;
+	public Material getMaterial(int materialIndex) {
+		return materials[materialIndex];
 	}
 
-	public int getVnbo() {
-		return vnbo;
+	/**
+	 * @return true, если все части используют один материал и меш можно нарисовать одним вызовом
+	 */
+	public boolean hasSingleMaterial() {
+		Material first = materials[submeshes[0].getMaterialIndex()];
+		for (Submesh submesh : submeshes) {
+			if (materials[submesh.getMaterialIndex()] != first) return false;
+		}
+		return true;
 	}
 
-	public void setMaterial(Material material) {
-		this.material = material;
+	public int getVAO() {
+		return vao;
 	}
 
-	public int getPBO() {
-		return pbo;
+	/**
+	 * Назначает материал всем частям меша
+	 */
+	public void setMaterial(Material material) {
+		Arrays.fill(materials, material);
 	}
 
-	public int getCBO() {
-		return cbo;
+	public void setMaterial(int materialIndex, Material material) {
+		materials[materialIndex] = material;
 	}
 
-	public int getTBO() {
-		return tbo;
+	public int getVBO() {
+		return vbo;
 	}
 
 	public int getIBO() {
@@ -0,0 +1,130 @@
+package main.java.engine.graphics;
+
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Геометрия меша на стороне CPU в виде структуры массивов:
+ * позиции и нормали по 3 float на вершину, текстурные координаты по 2 float.
+ * Вершины и индексы всех частей модели упакованы подряд, границы частей описывают submeshes.
+ */
+public class MeshData {
+	private final float[] positions;
+	private final float[] normals;
+	private final float[] textureCoords;
+	private final int[] indices;
+	private final Submesh[] submeshes;
+	private final int materialCount;
+	private final Vector3f min = new Vector3f(), max = new Vector3f();
+	private float radius;
+
+	public MeshData(float[] positions, float[] normals, float[] textureCoords, int[] indices,
+					Submesh[] submeshes, int materialCount) {
+		this.positions = positions;
+		this.normals = normals;
+		this.textureCoords = textureCoords;
+		this.indices = indices;
+		this.submeshes = submeshes;
+		this.materialCount = materialCount;
+		computeBounds();
+	}
+
+	private void computeBounds() {
+		if (positions.length == 0) return;
+		min.set(positions[0], positions[1], positions[2]);
+		max.set(min);
+		for (int i = 3; i < positions.length; i += 3) {
+			min.x = Math.min(min.x, positions[i]);
+			min.y = Math.min(min.y, positions[i + 1]);
+			min.z = Math.min(min.z, positions[i + 2]);
+			max.x = Math.max(max.x, positions[i]);
+			max.y = Math.max(max.y, positions[i + 1]);
+			max.z = Math.max(max.z, positions[i + 2]);
+		}
+
+		// сфера с центром в центре AABB и радиусом до самой дальней вершины - не шире половины диагонали
+		float cx = (min.x + max.x) * 0.5f, cy = (min.y + max.y) * 0.5f, cz = (min.z + max.z) * 0.5f;
+		float radiusSquared = 0;
+		for (int i = 0; i < positions.length; i += 3) {
+			float dx = positions[i] - cx, dy = positions[i + 1] - cy, dz = positions[i + 2] - cz;
+			radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+		}
+		radius = (float) Math.sqrt(radiusSquared);
+	}
+
+	/**
+	 * Записывает вершины в чередующемся формате Mesh.VERTEX_STRIDE, порядок байт берётся из буфера
+	 */
+	public void putVertices(ByteBuffer buffer) {
+		int vertexCount = getVertexCount();
+		for (int i = 0; i < vertexCount; i++) {
+			buffer.putFloat(positions[i * 3]).putFloat(positions[i * 3 + 1]).putFloat(positions[i * 3 + 2]);
+			buffer.putFloat(normals[i * 3]).putFloat(normals[i * 3 + 1]).putFloat(normals[i * 3 + 2]);
+			buffer.putFloat(textureCoords[i * 2]).putFloat(textureCoords[i * 2 + 1]);
+		}
+	}
+
+	public int getVertexCount() {
+		return positions.length / 3;
+	}
+
+	public int getIndexCount() {
+		return indices.length;
+	}
+
+	/**
+	 * @return наибольшее число вершин в одной части, по нему выбирается тип индексов
+	 */
+	public int getMaxSubmeshVertexCount() {
+		int result = 0;
+		for (Submesh submesh : submeshes) result = Math.max(result, submesh.getVertexCount());
+		return result;
+	}
+
+	public float[] getPositions() {
+		return positions;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public float[] getTextureCoords() {
+		return textureCoords;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * @return число уровней детализации; у всех частей оно одинаковое
+	 */
+	public int getLodCount() {
+		return submeshes.length == 0 ? 1 : submeshes[0].getLodCount();
+	}
+
+	public Submesh[] getSubmeshes() {
+		return submeshes;
+	}
+
+	public int getMaterialCount() {
+		return materialCount;
+	}
+
+	public Vector3f getMin() {
+		return min;
+	}
+
+	public Vector3f getMax() {
+		return max;
+	}
+
+	/**
+	 * @return радиус ограничивающей сферы с центром в центре AABB
+	 */
+	public float getRadius() {
+		return radius;
+	}
+}
@@ -0,0 +1,227 @@
+package main.java.engine.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Оптимизация индексов при импорте модели.
+ *
+ * Треугольники переупорядочиваются под кэш вершин после трансформации (алгоритм Форсайта,
+ * "Linear-Speed Vertex Cache Optimisation"), затем вершины нумеруются в порядке первого
+ * использования, чтобы выборка из VBO шла последовательно.
+ */
+public class MeshOptimizer {
+	private static final boolean DEBUG = Boolean.getBoolean("engine.debug");
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	/**
+	 * Размер FIFO-кэша, на котором считается ACMR для отчёта (печатается с -Dengine.debug=true)
+	 */
+	private static final int ACMR_CACHE_SIZE = 16;
+
+	public static MeshData optimize(MeshData data, String name) {
+		float before = DEBUG ? computeAcmr(data, ACMR_CACHE_SIZE) : 0;
+
+		Submesh[] submeshes = data.getSubmeshes();
+		Submesh[] newSubmeshes = new Submesh[submeshes.length];
+		int[] indices = new int[data.getIndexCount()];
+		float[] positions = new float[data.getVertexCount() * 3];
+		float[] normals = new float[data.getVertexCount() * 3];
+		float[] textureCoords = new float[data.getVertexCount() * 2];
+
+		int next = 0;
+		for (int i = 0; i < submeshes.length; i++) {
+			Submesh submesh = submeshes[i];
+			int offset = submesh.getIndexOffset();
+			int[] local = optimizeVertexCache(
+					Arrays.copyOfRange(data.getIndices(), offset, offset + submesh.getIndexCount()), submesh.getVertexCount());
+
+			int baseVertex = next;
+			next = optimizeVertexFetch(data, submesh.getBaseVertex(), submesh.getVertexCount(), local,
+					positions, normals, textureCoords, baseVertex);
+			System.arraycopy(local, 0, indices, offset, local.length);
+			newSubmeshes[i] = new Submesh(offset, local.length, baseVertex, next - baseVertex, submesh.getMaterialIndex());
+		}
+
+		MeshData result = new MeshData(Arrays.copyOf(positions, next * 3), Arrays.copyOf(normals, next * 3),
+				Arrays.copyOf(textureCoords, next * 2), indices, newSubmeshes, data.getMaterialCount());
+
+		if (DEBUG) {
+			float after = computeAcmr(result, ACMR_CACHE_SIZE);
+			System.out.println(String.format("%s: ACMR %.3f -> %.3f", name, before, after));
+		}
+		return result;
+	}
+
+	/**
+	 * Среднее число промахов FIFO-кэша вершин заданного размера на треугольник по всем частям меша
+	 */
+	public static float computeAcmr(MeshData data, int cacheSize) {
+		int triangleCount = data.getIndexCount() / 3;
+		if (triangleCount == 0) return 0;
+
+		int[] indices = data.getIndices();
+		int[] timestamps = new int[data.getVertexCount()];
+		int time = cacheSize + 1;
+		int misses = 0;
+		for (Submesh submesh : data.getSubmeshes()) {
+			for (int i = submesh.getIndexOffset(), end = i + submesh.getIndexCount(); i < end; i++) {
+				int index = indices[i] + submesh.getBaseVertex();
+				if (time - timestamps[index] > cacheSize) {
+					timestamps[index] = time++;
+					misses++;
+				}
+			}
+		}
+		return (float) misses / triangleCount;
+	}
+
+	public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+		int triangleCount = indices.length / 3;
+		int[] output = new int[triangleCount * 3];
+		if (triangleCount == 0) return output;
+
+		// списки смежных треугольников для каждой вершины; первые remaining[v] элементов - ещё не выведенные
+		int[] remaining = new int[vertexCount];
+		for (int i = 0; i < triangleCount * 3; i++) remaining[indices[i]]++;
+		int[] offsets = new int[vertexCount + 1];
+		for (int v = 0; v < vertexCount; v++) offsets[v + 1] = offsets[v] + remaining[v];
+		int[] adjacency = new int[triangleCount * 3];
+		int[] fill = Arrays.copyOf(offsets, vertexCount);
+		for (int i = 0; i < triangleCount * 3; i++) adjacency[fill[indices[i]]++] = i / 3;
+
+		int[] cachePosition = new int[vertexCount];
+		Arrays.fill(cachePosition, -1);
+		float[] vertexScores = new float[vertexCount];
+		for (int v = 0; v < vertexCount; v++) vertexScores[v] = vertexScore(-1, remaining[v]);
+
+		float[] triangleScores = new float[triangleCount];
+		int best = 0;
+		for (int t = 0; t < triangleCount; t++) {
+			triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]] + vertexScores[indices[t * 3 + 2]];
+			if (triangleScores[t] > triangleScores[best]) best = t;
+		}
+
+		boolean[] emitted = new boolean[triangleCount];
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int cursor = 0;
+
+		for (int out = 0; out < triangleCount; out++) {
+			if (best < 0) {
+				while (emitted[cursor]) cursor++;
+				best = cursor;
+			}
+			emitted[best] = true;
+
+			int newCount = 0;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[best * 3 + k];
+				output[out * 3 + k] = v;
+
+				int begin = offsets[v];
+				int end = begin + remaining[v];
+				for (int i = begin; i < end; i++) {
+					if (adjacency[i] == best) {
+						adjacency[i] = adjacency[end - 1];
+						adjacency[end - 1] = best;
+						break;
+					}
+				}
+				remaining[v]--;
+
+				if (!contains(newCache, newCount, v)) newCache[newCount++] = v;
+			}
+			int triangleVertices = newCount;
+			for (int i = 0; i < cacheCount; i++) {
+				if (!contains(newCache, triangleVertices, cache[i])) newCache[newCount++] = cache[i];
+			}
+
+			// вытесненные вершины тоже пересчитываются, чтобы сбросить им бонус за позицию в кэше
+			for (int i = 0; i < newCount; i++) {
+				int v = newCache[i];
+				cachePosition[v] = i < CACHE_SIZE ? i : -1;
+				float score = vertexScore(cachePosition[v], remaining[v]);
+				float delta = score - vertexScores[v];
+				vertexScores[v] = score;
+				for (int j = offsets[v], end = offsets[v] + remaining[v]; j < end; j++) {
+					triangleScores[adjacency[j]] += delta;
+				}
+			}
+
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = Math.min(newCount, CACHE_SIZE);
+
+			best = -1;
+			float bestScore = -1;
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				for (int j = offsets[v], end = offsets[v] + remaining[v]; j < end; j++) {
+					int t = adjacency[j];
+					if (triangleScores[t] > bestScore) {
+						bestScore = triangleScores[t];
+						best = t;
+					}
+				}
+			}
+		}
+		return output;
+	}
+
+	/**
+	 * Перенумеровывает вершины части меша в порядке первого обращения и дописывает их в выходные массивы
+	 * начиная с вершины target; вершины без треугольников отбрасываются. Индексы переписываются на месте.
+	 *
+	 * @return номер следующей свободной вершины в выходных массивах
+	 */
+	public static int optimizeVertexFetch(MeshData data, int baseVertex, int vertexCount, int[] indices,
+										  float[] positions, float[] normals, float[] textureCoords, int target) {
+		int[] remap = new int[vertexCount];
+		Arrays.fill(remap, -1);
+
+		int next = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0) remap[v] = next++;
+			indices[i] = remap[v];
+		}
+
+		for (int v = 0; v < vertexCount; v++) {
+			int n = remap[v];
+			if (n < 0) continue;
+			System.arraycopy(data.getPositions(), (baseVertex + v) * 3, positions, (target + n) * 3, 3);
+			System.arraycopy(data.getNormals(), (baseVertex + v) * 3, normals, (target + n) * 3, 3);
+			System.arraycopy(data.getTextureCoords(), (baseVertex + v) * 2, textureCoords, (target + n) * 2, 2);
+		}
+		return target + next;
+	}
+
+	private static float vertexScore(int cachePosition, int remainingTriangles) {
+		if (remainingTriangles == 0) return -1;
+
+		float score = 0;
+		if (cachePosition >= 0) {
+			if (cachePosition < 3) {
+				score = LAST_TRIANGLE_SCORE;
+			} else {
+				float scaler = 1.0f / (CACHE_SIZE - 3);
+				score = (float) Math.pow(1.0f - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+			}
+		}
+		score += VALENCE_BOOST_SCALE * (float) Math.pow(remainingTriangles, -VALENCE_BOOST_POWER);
+		return score;
+	}
+
+	private static boolean contains(int[] array, int count, int value) {
+		for (int i = 0; i < count; i++) {
+			if (array[i] == value) return true;
+		}
+		return false;
+	}
+}
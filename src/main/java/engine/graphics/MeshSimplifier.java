@@ -0,0 +1,325 @@
+package main.java.engine.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Построение цепочки LOD при импорте модели.
+ *
+ * Каждый уровень - отдельный список индексов поверх тех же вершин: рёбра схлопываются в одну из своих
+ * вершин в порядке возрастания квадратичной ошибки (Garland-Heckbert, "Surface Simplification Using
+ * Quadric Error Metrics"). Вершины на швах текстурных координат и на открытых краях закреплены,
+ * чтобы не рвать развёртку и силуэт. Уровни строятся последовательно, каждый из предыдущего.
+ */
+public class MeshSimplifier {
+	public static final int LOD_COUNT = 4;
+	private static final boolean DEBUG = Boolean.getBoolean("engine.debug");
+
+	/**
+	 * Доля треугольников первого уровня и допустимая ошибка относительно радиуса меша для каждого уровня
+	 */
+	private static final float[] LOD_TRIANGLE_RATIO = {1.0f, 0.5f, 0.25f, 0.125f};
+	private static final float[] LOD_MAX_ERROR = {0.0f, 0.01f, 0.03f, 0.08f};
+
+	/**
+	 * Число double на квадрику: симметричная матрица 4x4 (10 значений) и суммарный вес плоскостей
+	 */
+	private static final int QUADRIC_SIZE = 11;
+
+	public static MeshData generateLods(MeshData data, String name) {
+		Submesh[] submeshes = data.getSubmeshes();
+		float[] positions = data.getPositions();
+		int[][][] lods = new int[submeshes.length][][];
+
+		for (int s = 0; s < submeshes.length; s++) {
+			Submesh submesh = submeshes[s];
+			int offset = submesh.getIndexOffset();
+			int[] indices = Arrays.copyOfRange(data.getIndices(), offset, offset + submesh.getIndexCount());
+			int vertexCount = submesh.getVertexCount();
+			boolean[] locked = findLockedVertices(positions, submesh.getBaseVertex(), vertexCount, indices);
+			double[] quadrics = computeQuadrics(positions, submesh.getBaseVertex(), vertexCount, indices);
+
+			lods[s] = new int[LOD_COUNT][];
+			lods[s][0] = indices;
+			for (int lod = 1; lod < LOD_COUNT; lod++) {
+				int[] previous = lods[s][lod - 1];
+				int target = (int) (indices.length / 3 * LOD_TRIANGLE_RATIO[lod]);
+				int[] simplified = simplify(positions, submesh.getBaseVertex(), vertexCount, previous, quadrics, locked,
+						target, LOD_MAX_ERROR[lod] * data.getRadius());
+				// уровень, который не удалось упростить, ссылается на диапазон предыдущего
+				lods[s][lod] = simplified.length == previous.length
+						? previous : MeshOptimizer.optimizeVertexCache(simplified, vertexCount);
+			}
+		}
+
+		// первый уровень остаётся на своих местах, остальные дописываются после него уровень за уровнем
+		int total = data.getIndexCount();
+		for (int lod = 1; lod < LOD_COUNT; lod++) {
+			for (int[][] chain : lods) if (chain[lod] != chain[lod - 1]) total += chain[lod].length;
+		}
+		int[] indices = Arrays.copyOf(data.getIndices(), total);
+		int[][] lodOffsets = new int[submeshes.length][LOD_COUNT];
+		int[][] lodCounts = new int[submeshes.length][LOD_COUNT];
+		for (int s = 0; s < submeshes.length; s++) {
+			lodOffsets[s][0] = submeshes[s].getIndexOffset();
+			lodCounts[s][0] = submeshes[s].getIndexCount();
+		}
+		int next = data.getIndexCount();
+		int[] triangles = new int[LOD_COUNT];
+		for (int lod = 0; lod < LOD_COUNT; lod++) {
+			for (int s = 0; s < submeshes.length; s++) {
+				int[][] chain = lods[s];
+				if (lod > 0 && chain[lod] == chain[lod - 1]) {
+					lodOffsets[s][lod] = lodOffsets[s][lod - 1];
+					lodCounts[s][lod] = lodCounts[s][lod - 1];
+				} else if (lod > 0) {
+					System.arraycopy(chain[lod], 0, indices, next, chain[lod].length);
+					lodOffsets[s][lod] = next;
+					lodCounts[s][lod] = chain[lod].length;
+					next += chain[lod].length;
+				}
+				triangles[lod] += lodCounts[s][lod] / 3;
+			}
+		}
+
+		Submesh[] result = new Submesh[submeshes.length];
+		for (int s = 0; s < submeshes.length; s++) {
+			Submesh submesh = submeshes[s];
+			result[s] = new Submesh(lodOffsets[s], lodCounts[s], submesh.getBaseVertex(), submesh.getVertexCount(),
+					submesh.getMaterialIndex());
+		}
+
+		if (DEBUG) {
+			System.out.println(String.format("%s: LOD triangles %d -> %d -> %d -> %d",
+					name, triangles[0], triangles[1], triangles[2], triangles[3]));
+		}
+		return new MeshData(data.getPositions(), data.getNormals(), data.getTextureCoords(), indices, result,
+				data.getMaterialCount());
+	}
+
+	/**
+	 * Схлопывает рёбра, пока число треугольников больше targetTriangles и ошибка схлопывания не превышает maxError.
+	 * Работает проходами: в каждом проходе рёбра сортируются по стоимости, и схлопываются только те,
+	 * чьи окрестности ещё не менялись в этом проходе. Квадрики обновляются на месте.
+	 *
+	 * @return новый список индексов (локальных, от baseVertex)
+	 */
+	public static int[] simplify(float[] positions, int baseVertex, int vertexCount, int[] indices, double[] quadrics,
+								 boolean[] locked, int targetTriangles, float maxError) {
+		int[] result = indices.clone();
+		int triangleCount = result.length / 3;
+		double maxErrorSquared = (double) maxError * maxError;
+		int[] remap = new int[vertexCount];
+		boolean[] touched = new boolean[vertexCount];
+		int[] counts = new int[vertexCount];
+		int[] offsets = new int[vertexCount + 1];
+
+		while (triangleCount > targetTriangles) {
+			// треугольники, смежные с каждой вершиной
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < triangleCount * 3; i++) counts[result[i]]++;
+			for (int v = 0; v < vertexCount; v++) offsets[v + 1] = offsets[v] + counts[v];
+			int[] adjacency = new int[triangleCount * 3];
+			int[] fill = Arrays.copyOf(offsets, vertexCount);
+			for (int i = 0; i < triangleCount * 3; i++) adjacency[fill[result[i]]++] = i / 3;
+
+			// кандидаты: каждое ребро в направлении с меньшей ошибкой
+			int[] from = new int[triangleCount * 3];
+			int[] to = new int[triangleCount * 3];
+			float[] costs = new float[triangleCount * 3];
+			long[] order = new long[triangleCount * 3];
+			int edgeCount = 0;
+			for (int i = 0; i < triangleCount * 3; i++) {
+				int a = result[i], b = result[i - i % 3 + (i + 1) % 3];
+				if (a > b) continue;
+				float costAB = locked[a] ? Float.MAX_VALUE : collapseError(quadrics, positions, baseVertex, a, b);
+				float costBA = locked[b] ? Float.MAX_VALUE : collapseError(quadrics, positions, baseVertex, b, a);
+				if (costAB == Float.MAX_VALUE && costBA == Float.MAX_VALUE) continue;
+				boolean forward = costAB <= costBA;
+				from[edgeCount] = forward ? a : b;
+				to[edgeCount] = forward ? b : a;
+				costs[edgeCount] = forward ? costAB : costBA;
+				// неотрицательные float сравниваются как int, поэтому ключ сортировки - биты стоимости и номер ребра
+				order[edgeCount] = (long) Float.floatToIntBits(costs[edgeCount]) << 32 | edgeCount;
+				edgeCount++;
+			}
+			Arrays.sort(order, 0, edgeCount);
+
+			for (int v = 0; v < vertexCount; v++) remap[v] = v;
+			Arrays.fill(touched, false);
+			int remaining = triangleCount;
+			int collapses = 0;
+			for (int e = 0; e < edgeCount && remaining > targetTriangles; e++) {
+				int edge = (int) order[e];
+				if (costs[edge] > maxErrorSquared) break;
+				int u = from[edge], v = to[edge];
+				if (touched[u] || touched[v]) continue;
+				if (flipsTriangles(positions, baseVertex, result, adjacency, offsets, u, v)) continue;
+
+				remap[u] = v;
+				for (int k = 0; k < QUADRIC_SIZE; k++) quadrics[v * QUADRIC_SIZE + k] += quadrics[u * QUADRIC_SIZE + k];
+				for (int j = offsets[u]; j < offsets[u + 1]; j++) {
+					int t = adjacency[j];
+					int a = result[t * 3], b = result[t * 3 + 1], c = result[t * 3 + 2];
+					touched[a] = touched[b] = touched[c] = true;
+					if (a == v || b == v || c == v) remaining--;
+				}
+				collapses++;
+			}
+			if (collapses == 0) break;
+
+			int write = 0;
+			for (int t = 0; t < triangleCount; t++) {
+				int a = remap[result[t * 3]], b = remap[result[t * 3 + 1]], c = remap[result[t * 3 + 2]];
+				if (a == b || b == c || a == c) continue;
+				result[write++] = a;
+				result[write++] = b;
+				result[write++] = c;
+			}
+			triangleCount = write / 3;
+		}
+		return Arrays.copyOf(result, triangleCount * 3);
+	}
+
+	/**
+	 * Проверяет, развернётся ли какой-нибудь оставшийся треугольник вокруг u при переносе u в позицию v
+	 */
+	private static boolean flipsTriangles(float[] positions, int baseVertex, int[] indices, int[] adjacency, int[] offsets,
+										  int u, int v) {
+		int pv = (baseVertex + v) * 3;
+		for (int j = offsets[u]; j < offsets[u + 1]; j++) {
+			int t = adjacency[j] * 3;
+			int k = indices[t] == u ? 0 : indices[t + 1] == u ? 1 : 2;
+			int a = indices[t + (k + 1) % 3], b = indices[t + (k + 2) % 3];
+			if (a == v || b == v) continue;
+
+			int pu = (baseVertex + u) * 3, pa = (baseVertex + a) * 3, pb = (baseVertex + b) * 3;
+			float ax = positions[pa] - positions[pu], ay = positions[pa + 1] - positions[pu + 1], az = positions[pa + 2] - positions[pu + 2];
+			float bx = positions[pb] - positions[pu], by = positions[pb + 1] - positions[pu + 1], bz = positions[pb + 2] - positions[pu + 2];
+			float nx = ay * bz - az * by, ny = az * bx - ax * bz, nz = ax * by - ay * bx;
+
+			ax = positions[pa] - positions[pv];
+			ay = positions[pa + 1] - positions[pv + 1];
+			az = positions[pa + 2] - positions[pv + 2];
+			bx = positions[pb] - positions[pv];
+			by = positions[pb + 1] - positions[pv + 1];
+			bz = positions[pb + 2] - positions[pv + 2];
+			float mx = ay * bz - az * by, my = az * bx - ax * bz, mz = ax * by - ay * bx;
+
+			// поворот нормали больше чем примерно на 75 градусов считается разворотом: так отсекаются и вырожденные щели
+			float dot = nx * mx + ny * my + nz * mz;
+			if (dot <= 0.25f * (float) Math.sqrt((nx * nx + ny * ny + nz * nz) * (mx * mx + my * my + mz * mz))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Средний квадрат расстояния от позиции v до плоскостей, накопленных в квадриках u и v
+	 */
+	private static float collapseError(double[] quadrics, float[] positions, int baseVertex, int u, int v) {
+		int p = (baseVertex + v) * 3;
+		double x = positions[p], y = positions[p + 1], z = positions[p + 2];
+		int qu = u * QUADRIC_SIZE, qv = v * QUADRIC_SIZE;
+		double weight = quadrics[qu + 10] + quadrics[qv + 10];
+		if (weight <= 0) return 0;
+		double error = evaluate(quadrics, qu, x, y, z) + evaluate(quadrics, qv, x, y, z);
+		return (float) Math.max(error / weight, 0);
+	}
+
+	private static double evaluate(double[] quadrics, int q, double x, double y, double z) {
+		return quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z + 2 * quadrics[q + 3] * x
+				+ quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z + 2 * quadrics[q + 6] * y
+				+ quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z
+				+ quadrics[q + 9];
+	}
+
+	/**
+	 * Квадрики вершин из плоскостей смежных треугольников, взвешенных по площади
+	 */
+	private static double[] computeQuadrics(float[] positions, int baseVertex, int vertexCount, int[] indices) {
+		double[] quadrics = new double[vertexCount * QUADRIC_SIZE];
+		for (int t = 0; t < indices.length; t += 3) {
+			int p0 = (baseVertex + indices[t]) * 3, p1 = (baseVertex + indices[t + 1]) * 3, p2 = (baseVertex + indices[t + 2]) * 3;
+			double ax = positions[p1] - positions[p0], ay = positions[p1 + 1] - positions[p0 + 1], az = positions[p1 + 2] - positions[p0 + 2];
+			double bx = positions[p2] - positions[p0], by = positions[p2 + 1] - positions[p0 + 1], bz = positions[p2 + 2] - positions[p0 + 2];
+			double nx = ay * bz - az * by, ny = az * bx - ax * bz, nz = ax * by - ay * bx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (length == 0) continue;
+			double area = length * 0.5;
+			nx /= length;
+			ny /= length;
+			nz /= length;
+			double d = -(nx * positions[p0] + ny * positions[p0 + 1] + nz * positions[p0 + 2]);
+
+			for (int k = 0; k < 3; k++) {
+				int q = indices[t + k] * QUADRIC_SIZE;
+				quadrics[q] += area * nx * nx;
+				quadrics[q + 1] += area * nx * ny;
+				quadrics[q + 2] += area * nx * nz;
+				quadrics[q + 3] += area * nx * d;
+				quadrics[q + 4] += area * ny * ny;
+				quadrics[q + 5] += area * ny * nz;
+				quadrics[q + 6] += area * ny * d;
+				quadrics[q + 7] += area * nz * nz;
+				quadrics[q + 8] += area * nz * d;
+				quadrics[q + 9] += area * d * d;
+				quadrics[q + 10] += area;
+			}
+		}
+		return quadrics;
+	}
+
+	/**
+	 * Закрепляет вершины, у которых есть двойники с той же позицией (швы нормалей и текстурных координат),
+	 * и вершины открытых краёв - рёбер с одним треугольником, если считать вершины по позиции
+	 */
+	private static boolean[] findLockedVertices(float[] positions, int baseVertex, int vertexCount, int[] indices) {
+		boolean[] locked = new boolean[vertexCount];
+
+		// вершины с одинаковой позицией сводятся к одной через открытую адресацию
+		int tableSize = Integer.highestOneBit(Math.max(vertexCount, 1) * 2) * 2;
+		int[] table = new int[tableSize];
+		Arrays.fill(table, -1);
+		int[] canonical = new int[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			int p = (baseVertex + v) * 3;
+			int hash = Float.floatToIntBits(positions[p]) * 73856093
+					^ Float.floatToIntBits(positions[p + 1]) * 19349663
+					^ Float.floatToIntBits(positions[p + 2]) * 83492791;
+			int slot = hash & (tableSize - 1);
+			while (table[slot] >= 0) {
+				int q = (baseVertex + table[slot]) * 3;
+				if (positions[q] == positions[p] && positions[q + 1] == positions[p + 1] && positions[q + 2] == positions[p + 2]) break;
+				slot = (slot + 1) & (tableSize - 1);
+			}
+			if (table[slot] < 0) {
+				table[slot] = v;
+				canonical[v] = v;
+			} else {
+				canonical[v] = table[slot];
+				locked[v] = true;
+				locked[table[slot]] = true;
+			}
+		}
+
+		long[] edges = new long[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			int a = canonical[indices[i]], b = canonical[indices[i - i % 3 + (i + 1) % 3]];
+			edges[i] = (long) Math.min(a, b) << 32 | Math.max(a, b);
+		}
+		Arrays.sort(edges);
+		boolean[] border = new boolean[vertexCount];
+		for (int i = 0; i < edges.length; ) {
+			int j = i + 1;
+			while (j < edges.length && edges[j] == edges[i]) j++;
+			if (j - i == 1) {
+				border[(int) (edges[i] >>> 32)] = true;
+				border[(int) edges[i]] = true;
+			}
+			i = j;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			if (border[canonical[v]]) locked[v] = true;
+		}
+		return locked;
+	}
+}
@@ -0,0 +1,178 @@
+package main.java.engine.graphics;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Очередь отрисовки на один кадр. Элементы (меш, часть меша, материал, матрица модели) собираются
+ * за кадр; матрица задаётся объектом Matrix4f или смещением в плоском массиве матриц (EntityStore).
+ * Элементы сортируются по 64-битному ключу, чтобы соседние элементы делили программу, массив текстур и VAO,
+ * части одного меша шли подряд, а внутри одинакового состояния элементы шли спереди назад.
+ * Материал в ключ не входит: его параметры читаются из MaterialTable по номеру в данных экземпляра.
+ *
+ * Раскладка ключа от старших битов к младшим:
+ * программа (8) | массив текстур (8) | VAO (12) | уровень детализации (2) | часть меша (8) | глубина (10) |
+ * номер элемента (16).
+ * Идентификаторы OpenGL берутся по маске: совпадение младших битов лишь ухудшает группировку,
+ * решение о смене состояния всё равно принимается по настоящим идентификаторам.
+ */
+public class RenderQueue {
+	public static final int MAX_ITEMS = 1 << 16;
+
+	private static final int PROGRAM_SHIFT = 56;
+	private static final int TEXTURE_SHIFT = 48;
+	private static final int VAO_SHIFT = 36;
+	private static final int LOD_SHIFT = 34;
+	private static final int SUBMESH_SHIFT = 26;
+	private static final int DEPTH_SHIFT = 16;
+	private static final long PROGRAM_MASK = 0xFF, TEXTURE_MASK = 0xFF, VAO_MASK = 0xFFF, LOD_MASK = 0x3, SUBMESH_MASK = 0xFF,
+			DEPTH_MASK = 0x3FF;
+	private static final int INDEX_MASK = 0xFFFF;
+
+	private final float depthRange;
+	private final Vector3f eye = new Vector3f();
+	private long[] keys = new long[64];
+	private Shader[] shaders = new Shader[64];
+	private Mesh[] meshes = new Mesh[64];
+	private int[] submeshes = new int[64];
+	private int[] lods = new int[64];
+	private Material[] materials = new Material[64];
+	private Matrix4f[] transforms = new Matrix4f[64];
+	private float[][] matrixArrays = new float[64][];
+	private int[] matrixOffsets = new int[64];
+	private int size;
+
+	/**
+	 * @param depthRange расстояние, на которое растягивается 10-битная глубина ключа (дальняя плоскость)
+	 */
+	public RenderQueue(float depthRange) {
+		this.depthRange = depthRange;
+	}
+
+	/**
+	 * Очищает очередь; глубина элементов считается от позиции камеры
+	 */
+	public void begin(Vector3f cameraPosition) {
+		eye.set(cameraPosition);
+		Arrays.fill(shaders, 0, size, null);
+		Arrays.fill(meshes, 0, size, null);
+		Arrays.fill(materials, 0, size, null);
+		Arrays.fill(transforms, 0, size, null);
+		Arrays.fill(matrixArrays, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * @param submesh номер части меша или -1, чтобы нарисовать все части одним вызовом
+	 * @param lod     уровень детализации, не больше 3
+	 */
+	public void submit(Shader shader, Mesh mesh, int submesh, int lod, Material material, Matrix4f transform) {
+		add(shader, mesh, submesh, lod, material, transform.m30(), transform.m31(), transform.m32());
+		transforms[size - 1] = transform;
+	}
+
+	/**
+	 * То же, но матрица берётся из массива matrices (по столбцам) с позиции offset; массив не копируется
+	 * и не должен меняться до отрисовки
+	 */
+	public void submit(Shader shader, Mesh mesh, int submesh, int lod, Material material, float[] matrices, int offset) {
+		add(shader, mesh, submesh, lod, material, matrices[offset + 12], matrices[offset + 13], matrices[offset + 14]);
+		matrixArrays[size - 1] = matrices;
+		matrixOffsets[size - 1] = offset;
+	}
+
+	private void add(Shader shader, Mesh mesh, int submesh, int lod, Material material, float x, float y, float z) {
+		if (size == keys.length) grow();
+		Texture texture = getTexture(mesh, material);
+
+		float dx = x - eye.x, dy = y - eye.y, dz = z - eye.z;
+		float depth = Math.min((float) Math.sqrt(dx * dx + dy * dy + dz * dz) / depthRange, 1.0f);
+
+		keys[size] = (shader.getProgramID() & PROGRAM_MASK) << PROGRAM_SHIFT
+				| (texture.getTextureID() & TEXTURE_MASK) << TEXTURE_SHIFT
+				| (mesh.getVAO() & VAO_MASK) << VAO_SHIFT
+				| (lod & LOD_MASK) << LOD_SHIFT
+				| (submesh & SUBMESH_MASK) << SUBMESH_SHIFT
+				| ((long) (depth * DEPTH_MASK) & DEPTH_MASK) << DEPTH_SHIFT
+				| size;
+		shaders[size] = shader;
+		meshes[size] = mesh;
+		submeshes[size] = submesh;
+		lods[size] = lod;
+		materials[size] = material;
+		size++;
+	}
+
+	private void grow() {
+		if (keys.length == MAX_ITEMS) throw new IllegalStateException("Render queue is full: " + MAX_ITEMS + " items");
+		int capacity = keys.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		shaders = Arrays.copyOf(shaders, capacity);
+		meshes = Arrays.copyOf(meshes, capacity);
+		submeshes = Arrays.copyOf(submeshes, capacity);
+		lods = Arrays.copyOf(lods, capacity);
+		materials = Arrays.copyOf(materials, capacity);
+		transforms = Arrays.copyOf(transforms, capacity);
+		matrixArrays = Arrays.copyOf(matrixArrays, capacity);
+		matrixOffsets = Arrays.copyOf(matrixOffsets, capacity);
+	}
+
+	/**
+	 * Сортирует элементы по ключу; после этого геттеры возвращают элементы в порядке отрисовки
+	 */
+	public void sort() {
+		Arrays.sort(keys, 0, size);
+	}
+
+	private int item(int i) {
+		return (int) (keys[i] & INDEX_MASK);
+	}
+
+	/**
+	 * Текстура, с которой рисуется материал: своя у текстурированного материала, иначе текстура меша
+	 */
+	public static Texture getTexture(Mesh mesh, Material material) {
+		return material.isTextured() ? material.getTexture() : mesh.getTexture();
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Shader getShader(int i) {
+		return shaders[item(i)];
+	}
+
+	public Mesh getMesh(int i) {
+		return meshes[item(i)];
+	}
+
+	public int getSubmesh(int i) {
+		return submeshes[item(i)];
+	}
+
+	public int getLod(int i) {
+		return lods[item(i)];
+	}
+
+	public Material getMaterial(int i) {
+		return materials[item(i)];
+	}
+
+	/**
+	 * Записывает матрицу модели элемента i по столбцам в buffer с позиции offset
+	 */
+	public void putTransform(int i, ByteBuffer buffer, int offset) {
+		int item = item(i);
+		if (transforms[item] != null) {
+			transforms[item].get(offset, buffer);
+			return;
+		}
+		float[] matrices = matrixArrays[item];
+		int from = matrixOffsets[item];
+		for (int k = 0; k < 16; k++) buffer.putFloat(offset + k * Float.BYTES, matrices[from + k]);
+	}
+}
@@ -1,29 +1,80 @@
 package main.java.engine.graphics;
 
-import main.java.engine.io.Input;
 import main.java.engine.io.Window;
 import main.java.engine.objects.Camera;
+import main.java.engine.objects.EntityStore;
+import main.java.engine.objects.EntitySystems;
 import main.java.engine.objects.GameObject;
+import main.java.engine.objects.SpatialIndex;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.joml.Vector4f;
-import org.lwjgl.glfw.GLFW;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.lwjgl.opengl.GL46C.*;
 
 public class Renderer {
-	private final Shader shader;
+	private final ShaderVariants shaders;
 	private final Shader shaderSkybox;
 	private final Window window;
 	private final PointLight pointLight;
-    private Vector3f lightColour;
+	private final FrameUniforms frameUniforms = new FrameUniforms();
+	private final MaterialTable materialTable = new MaterialTable();
+	private final RenderQueue queue = new RenderQueue(Window.FAR_PLANE);
+	private int drawCalls, stateChanges;
+	private int frameFeatures, pointLights;
+	private float interpolation = 1;
+
+	/**
+	 * Пороги выбора уровня детализации: уровень k допустим, когда высота ограничивающей сферы на экране
+	 * меньше LOD_SCREEN_SIZE[k] от высоты окна
+	 */
+	private static final float[] LOD_SCREEN_SIZE = {Float.MAX_VALUE, 0.4f, 0.2f, 0.1f};
+	private static final float LOD_HYSTERESIS = 0.15f;
+	/**
+	 * Отношение высоты на экране к расстоянию, m11 матрицы проекции (1 / tan(FOV / 2)); берётся каждый кадр
+	 */
+	private float lodProjectionScale;
+	private final Vector3f eye = new Vector3f();
+
+	/**
+	 * Объекты кадра до отсечения: ограничивающие сферы лежат плоским массивом для FrustumCuller
+	 */
+	private final FrustumCuller frustum = new FrustumCuller();
+	private final Vector4f sphere = new Vector4f();
+	private GameObject[] candidates = new GameObject[64];
+	private Matrix4f[] candidateTransforms = new Matrix4f[64];
+	private float[] candidateSpheres = new float[64 * FrustumCuller.SPHERE_FLOATS];
+	private boolean[] candidateVisibility = new boolean[64];
+	private int candidateCount;
+	private final List<GameObject> visibleObjects = new ArrayList<>();
+
+	/**
+	 * Данные экземпляров (матрица модели и номер материала) всех элементов очереди в порядке сортировки
+	 * и команды glMultiDrawElementsIndirect, по команде на часть меша в каждой серии экземпляров
+	 */
+	private static final int COMMAND_SIZE = 5 * Integer.BYTES;
+	private int instanceBuffer, commandBuffer;
+	private ByteBuffer instanceData = MemoryUtil.memAlloc(64 * Mesh.INSTANCE_STRIDE);
+	private ByteBuffer commandData = MemoryUtil.memAlloc(64 * COMMAND_SIZE);
 
-	public Renderer(Window window, Shader shader, Shader shaderSkybox) {
+	private Uniform skyboxModelView, skyboxTextureLayer, skyboxUvTransform;
+
+	/**
+	 * @param shaders варианты главного шейдера; нужный вариант выбирается по материалу и состоянию кадра
+	 */
+	public Renderer(Window window, ShaderVariants shaders, Shader shaderSkybox) {
 		this.window = window;
-		this.shader = shader;
+		this.shaders = shaders;
 		this.shaderSkybox = shaderSkybox;
-		lightColour = new Vector3f(15.5f, 46.5f, 65f);
-		Vector3f lightPosition = new Vector3f(-110f, -134.3f, 54.5f);
+		Vector3f lightColour = new Vector3f(15.5f, 46.5f, 65f);
+		// положение задаёт сцена через getPointLight(), например по узлу иерархии внутри дома
+		Vector3f lightPosition = new Vector3f();
 
 		float lightIntensity = 50.0f;
 		pointLight = new PointLight(lightColour, lightPosition, lightIntensity);
@@ -31,85 +82,383 @@ public class Renderer {
 		pointLight.setAttenuation(att);
 	}
 
-	public void renderMesh(GameObject gameObject, Camera camera, DirectionalLight directionalLight, Vector3f ambientLight, Fog fog) {
-		glBindVertexArray(gameObject.getMesh().getVAO());
-		glEnableVertexAttribArray(0);
-		glEnableVertexAttribArray(1);
-		glEnableVertexAttribArray(2);
-		glEnableVertexAttribArray(3);
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, gameObject.getMesh().getIBO());
+	/**
+	 * Находит дескрипторы uniform-переменных, создаёт буферы кадра и задаёт значения,
+	 * которые не меняются между кадрами; вызывается после Shader.create(). Варианты главного шейдера
+	 * собираются при первой отрисовке и читают текстуру из текстурного блока 0 - значения sampler по умолчанию.
+	 *
+	 * @throws IllegalStateException если в шейдере неба нет нужной uniform-переменной
+	 */
+	public void create() {
+		frameUniforms.create();
+		materialTable.create();
+		instanceBuffer = glCreateBuffers();
+		commandBuffer = glCreateBuffers();
+		try {
+			skyboxModelView = shaderSkybox.createUniform("modelViewMatrix");
+			skyboxTextureLayer = shaderSkybox.createUniform("textureLayer");
+			skyboxUvTransform = shaderSkybox.createUniform("uvTransform");
+			Uniform skyboxTextureSampler = shaderSkybox.createUniform("texture_sampler");
+			Uniform skyboxAmbientLight = shaderSkybox.createUniform("ambientLight");
+			shaderSkybox.bind();
+			skyboxTextureSampler.set(0);
+			skyboxAmbientLight.set(1, 1, 1);
+			shaderSkybox.unbind();
+		} catch (Exception e) {
+			throw new IllegalStateException("Couldn't set up skybox shader uniforms", e);
+		}
+	}
+
+	/**
+	 * Заполняет uniform-блоки камеры, света и тумана; вызывается один раз в начале кадра,
+	 * после чего на каждый объект остаются только матрица модели и материал
+	 *
+	 * @param interpolation доля между предыдущим и текущим шагом симуляции, с которой строятся матрицы объектов
+	 */
+	public void beginFrame(Camera camera, DirectionalLight directionalLight, Vector3f ambientLight, Fog fog,
+			float interpolation) {
+		this.interpolation = interpolation;
+		frameUniforms.update(camera, window.projection, pointLight, directionalLight, ambientLight, fog);
+		frameFeatures = fog.isActive() ? ShaderVariants.FOG : 0;
+		pointLights = pointLight.getIntensity() > 0 ? 1 : 0;
+		queue.begin(camera.getPosition());
+		drawCalls = 0;
+		stateChanges = 0;
+		frustum.resetCounters();
+		eye.set(camera.getPosition());
+		lodProjectionScale = window.projection.m11();
+		frustum.update(window.projection, frameUniforms.getView());
+	}
+
+	/**
+	 * Добавляет объект в кадр. Видимость проверяется в flush() сразу для всех объектов кадра
+	 * по их ограничивающим сферам в мировых координатах.
+	 */
+	public void submit(GameObject gameObject) {
+		if (candidateCount == candidates.length) {
+			int capacity = candidates.length * 2;
+			candidates = Arrays.copyOf(candidates, capacity);
+			candidateTransforms = Arrays.copyOf(candidateTransforms, capacity);
+			candidateSpheres = Arrays.copyOf(candidateSpheres, capacity * FrustumCuller.SPHERE_FLOATS);
+			candidateVisibility = Arrays.copyOf(candidateVisibility, capacity);
+		}
+		Matrix4f transform = gameObject.getModelMatrix(interpolation);
+		gameObject.getWorldBoundingSphere(transform, sphere);
+		int offset = candidateCount * FrustumCuller.SPHERE_FLOATS;
+		candidateSpheres[offset] = sphere.x;
+		candidateSpheres[offset + 1] = sphere.y;
+		candidateSpheres[offset + 2] = sphere.z;
+		candidateSpheres[offset + 3] = sphere.w;
+		candidates[candidateCount] = gameObject;
+		candidateTransforms[candidateCount] = transform;
+		candidateCount++;
+	}
+
+	/**
+	 * Ставит в очередь объекты индекса сцены, пересекающие пирамиду видимости. Запрос обходит
+	 * только видимые ветви дерева, поэтому время зависит от видимой части сцены, а не от её размера.
+	 */
+	public void submitVisible(SpatialIndex<GameObject> scene) {
+		visibleObjects.clear();
+		scene.queryFrustum(frustum, visibleObjects);
+		for (int i = 0; i < visibleObjects.size(); i++) {
+			GameObject gameObject = visibleObjects.get(i);
+			enqueue(gameObject, gameObject.getModelMatrix(interpolation));
+		}
+		frustum.count(visibleObjects.size(), scene.size() - visibleObjects.size());
+		visibleObjects.clear();
+	}
+
+	/**
+	 * Отсекает объекты кадра по пирамиде видимости и ставит видимые в очередь
+	 */
+	private void cullCandidates() {
+		frustum.cullSpheres(candidateSpheres, candidateCount, candidateVisibility);
+		for (int i = 0; i < candidateCount; i++) {
+			if (candidateVisibility[i]) enqueue(candidates[i], candidateTransforms[i]);
+			candidates[i] = null;
+			candidateTransforms[i] = null;
+		}
+		candidateCount = 0;
+	}
+
+	/**
+	 * Ставит в очередь видимые сущности хранилища. Матрицы и сферы строятся системой преобразований
+	 * с долей интерполяции кадра, видимость - системой отсечения; обе проходят хранилище параллельно.
+	 * Сущности, которым не хватило места в очереди (RenderQueue.MAX_ITEMS), в этом кадре не рисуются.
+	 */
+	public void submitEntities(EntityStore entities) {
+		EntitySystems.buildTransforms(entities, interpolation);
+		EntitySystems.cull(entities, frustum);
+		float[] matrices = entities.getWorldMatrices(), spheres = entities.getSpheres();
+		int visible = 0;
+		for (int row = 0; row < entities.size(); row++) {
+			if (!entities.isVisible(row)) continue;
+			Mesh mesh = entities.getMesh(row);
+			if (queue.size() + mesh.getSubmeshes().length > RenderQueue.MAX_ITEMS) break;
+			int s = row * FrustumCuller.SPHERE_FLOATS;
+			int lod = selectLod(mesh, entities.getLod(row), spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3]);
+			entities.setLod(row, lod);
+			enqueue(mesh, lod, null, matrices, row * 16);
+			visible++;
+		}
+		frustum.count(visible, entities.size() - visible);
+	}
+
+	/**
+	 * Выбирает уровень детализации объекта и ставит его меш в очередь
+	 */
+	private void enqueue(GameObject gameObject, Matrix4f transform) {
+		gameObject.getWorldBoundingSphere(transform, sphere);
+		int lod = selectLod(gameObject.getMesh(), gameObject.getLod(), sphere.x, sphere.y, sphere.z, sphere.w);
+		gameObject.setLod(lod);
+		enqueue(gameObject.getMesh(), lod, transform, null, 0);
+	}
+
+	/**
+	 * Ставит меш в очередь: одним элементом, если у всех частей меша общий материал,
+	 * иначе по элементу на часть. Матрица задаётся transform или, если он null, смещением в matrices.
+	 */
+	private void enqueue(Mesh mesh, int lod, Matrix4f transform, float[] matrices, int offset) {
+		if (mesh.hasSingleMaterial()) {
+			submit(mesh, -1, lod, mesh.getMaterial(), transform, matrices, offset);
+			return;
+		}
+		Submesh[] submeshes = mesh.getSubmeshes();
+		for (int i = 0; i < submeshes.length; i++) {
+			submit(mesh, i, lod, mesh.getMaterial(submeshes[i].getMaterialIndex()), transform, matrices, offset);
+		}
+	}
+
+	private void submit(Mesh mesh, int submesh, int lod, Material material, Matrix4f transform, float[] matrices,
+			int offset) {
+		if (transform != null) {
+			queue.submit(getShader(material), mesh, submesh, lod, material, transform);
+		} else {
+			queue.submit(getShader(material), mesh, submesh, lod, material, matrices, offset);
+		}
+	}
+
+	/**
+	 * Вариант главного шейдера для материала: без выборки текстуры у материалов без неё, без тумана
+	 * и точечного света, если они в этом кадре выключены
+	 */
+	private Shader getShader(Material material) {
+		return shaders.get(frameFeatures | (material.isTextured() ? ShaderVariants.TEXTURED : 0), pointLights);
+	}
+
+	/**
+	 * Выбирает уровень детализации по высоте ограничивающей сферы на экране (доля высоты окна).
+	 * Переход на следующий уровень и обратно происходит с запасом LOD_HYSTERESIS вокруг порога,
+	 * чтобы объект на границе не переключался каждый кадр.
+	 */
+	private int selectLod(Mesh mesh, int currentLod, float x, float y, float z, float radius) {
+		int lodCount = Math.min(mesh.getLodCount(), LOD_SCREEN_SIZE.length);
+		float dx = x - eye.x, dy = y - eye.y, dz = z - eye.z;
+		float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+		float screenSize = distance <= radius ? Float.MAX_VALUE : radius * lodProjectionScale / distance;
+
+		int lod = Math.min(currentLod, lodCount - 1);
+		while (lod + 1 < lodCount && screenSize < LOD_SCREEN_SIZE[lod + 1] * (1 - LOD_HYSTERESIS)) lod++;
+		while (lod > 0 && screenSize > LOD_SCREEN_SIZE[lod] * (1 + LOD_HYSTERESIS)) lod--;
+		return lod;
+	}
+
+	/**
+	 * Сортирует очередь и рисует её. Подряд идущие элементы с одной программой, мешем, уровнем детализации
+	 * и массивом текстур собираются в группу и рисуются одним glMultiDrawElementsIndirect: внутри группы на каждую
+	 * серию элементов одной части меша приходится команда с числом экземпляров, равным длине серии. Материалы
+	 * внутри группы могут различаться - номер материала передаётся с экземпляром. Программа, VAO и массив текстур
+	 * переключаются только при смене.
+	 */
+	public void flush() {
+		cullCandidates();
+		queue.sort();
+		int size = queue.size();
+		if (size == 0) return;
+
+		instanceData = ensureCapacity(instanceData, size * Mesh.INSTANCE_STRIDE);
+		int commandCount = 0;
+		for (int i = 0, end; i < size; i = end) {
+			end = runEnd(i);
+			Mesh mesh = queue.getMesh(i);
+			int submesh = queue.getSubmesh(i);
+			int lod = queue.getLod(i);
+			if (submesh < 0) {
+				for (Submesh part : mesh.getSubmeshes()) commandCount = putCommand(commandCount, part, lod, end - i, i);
+			} else {
+				commandCount = putCommand(commandCount, mesh.getSubmeshes()[submesh], lod, end - i, i);
+			}
+			for (int k = i; k < end; k++) {
+				queue.putTransform(k, instanceData, k * Mesh.INSTANCE_STRIDE);
+				instanceData.putInt(k * Mesh.INSTANCE_STRIDE + Mesh.INSTANCE_MATERIAL_OFFSET,
+						materialTable.getSlot(queue.getMaterial(k)));
+			}
+		}
+		instanceData.limit(size * Mesh.INSTANCE_STRIDE);
+		commandData.limit(commandCount * COMMAND_SIZE);
+		glNamedBufferData(instanceBuffer, instanceData, GL_STREAM_DRAW);
+		glNamedBufferData(commandBuffer, commandData, GL_STREAM_DRAW);
+		instanceData.clear();
+		commandData.clear();
+		materialTable.upload();
+
+		Shader currentShader = null;
+		int currentVao = -1, currentTexture = -1;
 		glActiveTexture(GL_TEXTURE0);
-		glBindTexture(GL_TEXTURE_2D, gameObject.getMesh().getTexture().getTextureID());
-		shader.bind();
-		glUniform3f(glGetUniformLocation(shader.getProgramID(), "camera_pos"), camera.getPosition().x, camera.getPosition().y, camera.getPosition().z);
-		Matrix4f viewMatrix = camera.view(camera.getPosition(), camera.getRotation());
-		shader.setUniformPointLight("pointLight", pointLight);
-		shader.setUniformMat4("u_ModelMatrix", gameObject.getModelMatrix());
-		shader.setUniformMat4("view", viewMatrix);
-		shader.setUniformMat4("projection", window.projection);
-
-		DirectionalLight currDirLight = new DirectionalLight(directionalLight);
-		Vector4f dir = new Vector4f(currDirLight.getDirection(), 0);
-		dir.mul(viewMatrix);
-		currDirLight.setDirection(new Vector3f(dir.x, dir.y, dir.z));
-		shader.setUniformDirectionalLight("directionalLight", currDirLight);
-        shader.setUniformVec3("ambientLight", ambientLight);
-
-		shader.setUniformInt("texture_sampler", 0);
-		shader.setUniformMaterial("material", gameObject.getMesh().getMaterial());
-		shader.setUniformFog("fog", fog);
-
-		glDrawElements(GL_TRIANGLES, gameObject.getMesh().getIndices().length, GL_UNSIGNED_INT, 0);
-
-		shader.unbind();
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-		glDisableVertexAttribArray(0);
-		glDisableVertexAttribArray(1);
-		glDisableVertexAttribArray(2);
-		glDisableVertexAttribArray(3);
+		glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+
+		int command = 0;
+		for (int i = 0, end; i < size; i = end) {
+			end = groupEnd(i);
+			Shader itemShader = queue.getShader(i);
+			Mesh mesh = queue.getMesh(i);
+
+			if (itemShader != currentShader) {
+				itemShader.bind();
+				currentShader = itemShader;
+				stateChanges++;
+			}
+			if (mesh.getVAO() != currentVao) {
+				bindVertexArray(mesh);
+				currentVao = mesh.getVAO();
+				stateChanges++;
+			}
+			int texture = getTextureID(i);
+			if (texture != currentTexture) {
+				glBindTexture(GL_TEXTURE_2D_ARRAY, texture);
+				currentTexture = texture;
+				stateChanges++;
+			}
+
+			int commands = 0;
+			for (int k = i, runEnd; k < end; k = runEnd) {
+				runEnd = runEnd(k);
+				commands += queue.getSubmesh(k) < 0 ? mesh.getSubmeshes().length : 1;
+			}
+			glMultiDrawElementsIndirect(GL_TRIANGLES, mesh.getIndexType(), (long) command * COMMAND_SIZE, commands, 0);
+			command += commands;
+			drawCalls++;
+		}
+
+		glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+		if (currentShader != null) currentShader.unbind();
 		glBindVertexArray(0);
+	}
+
+	private int getTextureID(int item) {
+		return RenderQueue.getTexture(queue.getMesh(item), queue.getMaterial(item)).getTextureID();
+	}
+
+	/**
+	 * @return конец группы элементов, которые можно нарисовать одним glMultiDrawElementsIndirect
+	 */
+	private int groupEnd(int start) {
+		int end = start + 1;
+		while (end < queue.size() && sameGroup(start, end)) end++;
+		return end;
+	}
+
+	/**
+	 * @return конец серии элементов группы с одной частью меша, которые описывает одна команда с экземплярами
+	 */
+	private int runEnd(int start) {
+		int end = start + 1;
+		while (end < queue.size() && sameGroup(start, end) && queue.getSubmesh(end) == queue.getSubmesh(start)) end++;
+		return end;
+	}
+
+	private boolean sameGroup(int a, int b) {
+		return queue.getShader(a) == queue.getShader(b)
+				&& queue.getMesh(a) == queue.getMesh(b)
+				&& queue.getLod(a) == queue.getLod(b)
+				&& getTextureID(a) == getTextureID(b);
+	}
+
+	/**
+	 * Записывает команду DrawElementsIndirectCommand: count, instanceCount, firstIndex, baseVertex, baseInstance
+	 */
+	private int putCommand(int command, Submesh part, int lod, int instanceCount, int baseInstance) {
+		commandData = ensureCapacity(commandData, (command + 1) * COMMAND_SIZE);
+		commandData.putInt(command * COMMAND_SIZE, part.getIndexCount(lod))
+				.putInt(command * COMMAND_SIZE + 4, instanceCount)
+				.putInt(command * COMMAND_SIZE + 8, part.getIndexOffset(lod))
+				.putInt(command * COMMAND_SIZE + 12, part.getBaseVertex())
+				.putInt(command * COMMAND_SIZE + 16, baseInstance);
+		return command + 1;
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+		if (buffer.capacity() >= capacity) return buffer;
+		return MemoryUtil.memRealloc(buffer, Math.max(capacity, buffer.capacity() * 2));
+	}
 
-        /**
-         * Можно настроить цвет точечного источника света в доме
-         * при помощи кнопок прямо на сцене и вывести результат в консоль
-         */
-		if (Input.isKeyDown(GLFW.GLFW_KEY_LEFT)) lightColour.x += 0.1f;
-		if (Input.isKeyDown(GLFW.GLFW_KEY_RIGHT)) lightColour.x -= 0.1f;
-		if (Input.isKeyDown(GLFW.GLFW_KEY_UP)) lightColour.y += 0.1f;
-		if (Input.isKeyDown(GLFW.GLFW_KEY_DOWN)) lightColour.y -= 0.1f;
-		if (Input.isKeyDown(GLFW.GLFW_KEY_V)) lightColour.z += 0.1f;
-		if (Input.isKeyDown(GLFW.GLFW_KEY_B)) lightColour.z -= 0.1f;
-	}
-
-	public void renderSkyBox(GameObject gameObject, Camera camera){
-		glBindVertexArray(gameObject.getMesh().getVAO());
-		glEnableVertexAttribArray(0);
-		glEnableVertexAttribArray(2);
-		glEnableVertexAttribArray(3);
-
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, gameObject.getMesh().getIBO());
+	/**
+	 * Привязывает VAO меша и подключает к нему буфер матриц экземпляров
+	 */
+	private void bindVertexArray(Mesh mesh) {
+		glVertexArrayVertexBuffer(mesh.getVAO(), Mesh.INSTANCE_BINDING, instanceBuffer, 0, Mesh.INSTANCE_STRIDE);
+		glBindVertexArray(mesh.getVAO());
+	}
+
+	public PointLight getPointLight() {
+		return pointLight;
+	}
+
+	/**
+	 * @return число вызовов отрисовки очереди за последний кадр
+	 */
+	public int getDrawCalls() {
+		return drawCalls;
+	}
+
+	/**
+	 * @return число объектов, прошедших отсечение по пирамиде видимости за последний кадр
+	 */
+	public int getVisibleObjects() {
+		return frustum.getVisible();
+	}
+
+	/**
+	 * @return число объектов, отброшенных отсечением за последний кадр
+	 */
+	public int getCulledObjects() {
+		return frustum.getCulled();
+	}
+
+	/**
+	 * @return число переключений программы, VAO и массива текстур за последний кадр
+	 */
+	public int getStateChanges() {
+		return stateChanges;
+	}
+
+	public void renderSkyBox(GameObject gameObject){
+		bindVertexArray(gameObject.getMesh());
+		Texture texture = gameObject.getMesh().getTexture();
 		glActiveTexture(GL_TEXTURE0);
-		glBindTexture(GL_TEXTURE_2D, gameObject.getMesh().getTexture().getTextureID());
+		glBindTexture(GL_TEXTURE_2D_ARRAY, texture.getTextureID());
 		shaderSkybox.bind();
 
-        Matrix4f viewMatrix = camera.view(camera.getPosition(), camera.getRotation());
+		skyboxModelView.set(gameObject.getModelMatrix());
+		skyboxTextureLayer.set(texture.getLayer());
+		skyboxUvTransform.set(texture.getUvTransform());
 
-		viewMatrix.m30(0);
-		viewMatrix.m31(0);
-		viewMatrix.m32(0);
-        shaderSkybox.setUniformInt("texture_sampler", 0);
-        Matrix4f projectionMatrix = window.projection;
-        shaderSkybox.setUniformMat4("projectionMatrix", projectionMatrix);
-		shaderSkybox.setUniformMat4("modelViewMatrix", gameObject.getModelMatrix());
-		shaderSkybox.setUniformVec3("ambientLight", new Vector3f(1,1,1));
-
-		glDrawElements(GL_TRIANGLES, gameObject.getMesh().getIndices().length, GL_UNSIGNED_INT, 0);
+		Mesh mesh = gameObject.getMesh();
+		glMultiDrawElementsBaseVertex(GL_TRIANGLES, mesh.getDrawCounts(), mesh.getIndexType(),
+				mesh.getDrawOffsets(), mesh.getDrawBaseVertices());
 
 		shaderSkybox.unbind();
-		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
-		glDisableVertexAttribArray(0);
-		glDisableVertexAttribArray(2);
-		glDisableVertexAttribArray(3);
 		glBindVertexArray(0);
 	}
+
+	public void destroy() {
+		frameUniforms.destroy();
+		shaders.destroy();
+		materialTable.destroy();
+		glDeleteBuffers(instanceBuffer);
+		glDeleteBuffers(commandBuffer);
+		MemoryUtil.memFree(instanceData);
+		MemoryUtil.memFree(commandData);
+	}
 }
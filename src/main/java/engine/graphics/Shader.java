@@ -2,37 +2,79 @@ package main.java.engine.graphics;
 
 import static org.lwjgl.opengl.GL46C.*;
 
-import main.java.engine.utils.FileUtils;
-import org.joml.Matrix4f;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
-import org.joml.Vector4f;
+import main.java.engine.io.ProgramCache;
 import org.lwjgl.system.MemoryStack;
+
+import java.io.IOException;
+import java.nio.IntBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Shader {
+	private static final boolean DEBUG = Boolean.getBoolean("engine.debug");
+
 	private final String vertexFile;
 	private final String fragmentFile;
 	private int vertexID, fragmentID, programID;
-	private final Map<String, Integer> uniforms;
-
-	public Shader(String vertexPath, String fragmentPath) {
-		vertexFile = FileUtils.loadAsString(vertexPath);
-		fragmentFile = FileUtils.loadAsString(fragmentPath);
+	private final Map<String, Uniform> uniforms;
+
+	/**
+	 * @param defines определения варианта, которые ShaderPreprocessor вставит после #version в оба шейдера,
+	 *                например "FOG" или "NUM_POINT_LIGHTS 1"
+	 */
+	public Shader(String vertexPath, String fragmentPath, String... defines) {
+		vertexFile = loadSource(vertexPath, defines);
+		fragmentFile = loadSource(fragmentPath, defines);
 		uniforms = new HashMap<>();
 	}
 
-	public void createUniform(String uniformName) throws Exception {
-		int uniformLocation = glGetUniformLocation(programID, uniformName);
-		if (uniformLocation < 0) {
+	private static String loadSource(String path, String[] defines) {
+		try {
+			return ShaderPreprocessor.process(path, defines);
+		} catch (IOException e) {
+			System.err.println("Couldn't load shader " + path + ": " + e.getMessage());
+			return "";
+		}
+	}
+
+	/**
+	 * Возвращает дескриптор uniform-переменной; все расположения находятся один раз в create(),
+	 * поэтому дескрипторы следует получать при инициализации и хранить
+	 */
+	public Uniform createUniform(String uniformName) throws Exception {
+		Uniform uniform = uniforms.get(uniformName);
+		if (uniform == null) {
 			throw new Exception("Could not find uniform:" + uniformName);
 		}
-		uniforms.put(uniformName, uniformLocation);
+		return uniform;
 	}
 
+	/**
+	 * Создаёт программу. Бинарник программы берётся из ProgramCache, если он собран тем же драйвером
+	 * из тех же исходников; иначе шейдеры компилируются и линкуются, а результат сохраняется в кэш.
+	 * Проверка glValidateProgram выполняется только в отладочном режиме (-Dengine.debug=true).
+	 */
 	public void create() {
 		programID = glCreateProgram();
+		String cacheKey = ProgramCache.getKey(vertexFile, fragmentFile);
+		if (!ProgramCache.load(cacheKey, programID)) {
+			if (!compileAndLink()) return;
+			ProgramCache.store(cacheKey, programID);
+		}
+		FrameUniforms.bindBlocks(programID);
+
+		if (DEBUG) {
+			glValidateProgram(programID);
+			if (glGetProgrami(programID, GL_VALIDATE_STATUS) == GL_FALSE) {
+				System.err.println("Program Validation: " + glGetProgramInfoLog(programID));
+				return;
+			}
+		}
+
+		findUniforms();
+	}
+
+	private boolean compileAndLink() {
 		vertexID = glCreateShader(GL_VERTEX_SHADER);
 
 		glShaderSource(vertexID, vertexFile);
@@ -40,7 +82,7 @@ public class Shader {
 
 		if (glGetShaderi(vertexID, GL_COMPILE_STATUS) == GL_FALSE) {
 			System.err.println("Vertex Shader: " + glGetShaderInfoLog(vertexID));
-			return;
+			return false;
 		}
 
 		fragmentID = glCreateShader(GL_FRAGMENT_SHADER);
@@ -50,22 +92,33 @@ public class Shader {
 
 		if (glGetShaderi(fragmentID, GL_COMPILE_STATUS) == GL_FALSE) {
 			System.err.println("Fragment Shader: " + glGetShaderInfoLog(fragmentID));
-			return;
+			return false;
 		}
 
 		glAttachShader(programID, vertexID);
 		glAttachShader(programID, fragmentID);
 
+		glProgramParameteri(programID, GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL_TRUE);
 		glLinkProgram(programID);
 		if (glGetProgrami(programID, GL_LINK_STATUS) == GL_FALSE) {
 			System.err.println("Program Linking: " + glGetProgramInfoLog(programID));
-			return;
+			return false;
 		}
+		return true;
+	}
 
-		glValidateProgram(programID);
-		if (glGetProgrami(programID, GL_VALIDATE_STATUS) == GL_FALSE) {
-			System.err.println("Program Validation: " + glGetProgramInfoLog(programID));
-			return;
+	private void findUniforms() {
+		int count = glGetProgrami(programID, GL_ACTIVE_UNIFORMS);
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer size = stack.mallocInt(1);
+			IntBuffer type = stack.mallocInt(1);
+			for (int i = 0; i < count; i++) {
+				String name = glGetActiveUniform(programID, i, size, type);
+				int location = glGetUniformLocation(programID, name);
+				if (location < 0) continue;
+				uniforms.put(name, new Uniform(location));
+				if (name.endsWith("[0]")) uniforms.put(name.substring(0, name.length() - 3), new Uniform(location));
+			}
 		}
 	}
 
@@ -77,129 +130,9 @@ public class Shader {
 		glUseProgram(0);
 	}
 
-	public void setUniformInt(String name, int value){
-//		glUniform1i(glGetUniformLocation(programID, name), value);
-		glUniform1i(uniforms.get(name), value);
-	}
-
-	public void setUniformInt2(String name, int x, int y){
-		glUniform2i(glGetUniformLocation(programID, name), x, y);
-	}
-
-	public void setUniformInt3(String name, int x, int y, int z){
-		glUniform3i(glGetUniformLocation(programID, name), x, y, z);
-	}
-
-	public void setUniformInt4(String name, int x, int y, int z, int w){
-		glUniform4i(glGetUniformLocation(programID, name), x, y, z, w);
-	}
-
-	public void setUniformFloat(String name, float value){
-		glUniform1f(uniforms.get(name), value);
-	}
-
-	public void setUniformFloat2(String name, float x, float y){
-		glUniform2f(glGetUniformLocation(programID, name), x, y);
-	}
-
-	public void setUniformFloat3(String name, float x, float y, float z){
-		glUniform3f(glGetUniformLocation(programID, name), x, y, z);
-	}
-
-	public void setUniformFloat4(String name, float x, float y, float z, float w){
-		glUniform4f(glGetUniformLocation(programID, name), x, y, z, w);
-	}
-
-	public void setUniformBoolean(String name, boolean value){
-		glUniform1i(glGetUniformLocation(programID, name), value ? 1 : 0);
-	}
-
-	public void setUniformVec2(String name, Vector2f value){
-		glUniform2f(glGetUniformLocation(programID, name), value.x, value.y);
-	}
-
-	public void setUniformVec3(String name, Vector3f value){
-		glUniform3f(uniforms.get(name), value.x, value.y, value.z);
-	}
-
-	public void setUniformVec4(String name, Vector4f value){
-		glUniform4f(uniforms.get(name), value.x, value.y, value.z, value.w);
-	}
-
-	public void setUniformPointLight(String name, PointLight pointLight){
-		setUniformVec3(name + ".colour", pointLight.getColor() );
-		setUniformVec3(name + ".position", pointLight.getPosition());
-		setUniformFloat(name + ".intensity", pointLight.getIntensity());
-		PointLight.Attenuation att = pointLight.getAttenuation();
-		setUniformFloat(name + ".att.constant", att.getConstant());
-		setUniformFloat(name + ".att.linear", att.getLinear());
-		setUniformFloat(name + ".att.exponent", att.getExponent());
-	}
-
-	public void setUniformDirectionalLight(String uniformName, DirectionalLight dirLight) {
-		setUniformVec3(uniformName + ".colour", dirLight.getColor() );
-		setUniformVec3(uniformName + ".direction", dirLight.getDirection());
-		setUniformFloat(uniformName + ".intensity", dirLight.getIntensity());
-	}
-
-	public void setUniformMaterial(String name, Material material){
-		setUniformVec4(name + ".ambient", material.getAmbientColour());
-		setUniformVec4(name + ".diffuse", material.getDiffuseColour());
-		setUniformVec4(name + ".specular", material.getSpecularColour());
-		setUniformInt(name + ".hasTexture", material.isTextured() ? 1 : 0);
-		setUniformFloat(name + ".reflectance", material.getReflectance());
-	}
-
-    public void setUniformFog(String name, Fog fog) {
-        setUniformInt(name + ".activeFog", fog.isActive() ? 1 : 0);
-        setUniformVec3(name + ".colour", fog.getColour() );
-        setUniformFloat(name + ".density", fog.getDensity());
-    }
-
-	public void createPointLightUniform(String uniformName) throws Exception {
-		createUniform(uniformName + ".colour");
-		createUniform(uniformName + ".position");
-		createUniform(uniformName + ".intensity");
-		createUniform(uniformName + ".att.constant");
-		createUniform(uniformName + ".att.linear");
-		createUniform(uniformName + ".att.exponent");
-	}
-
-	public void createDirectionalLightUniform(String uniformName) throws Exception {
-		createUniform(uniformName + ".colour");
-		createUniform(uniformName + ".direction");
-		createUniform(uniformName + ".intensity");
-	}
-
-	public void createMaterialUniform(String uniformName) throws Exception {
-		createUniform(uniformName + ".ambient");
-		createUniform(uniformName + ".diffuse");
-		createUniform(uniformName + ".specular");
-		createUniform(uniformName + ".hasTexture");
-		createUniform(uniformName + ".reflectance");
-	}
-
-    public void createFogUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".activeFog");
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".density");
-    }
-
-    public void setUniformMat4(String name, Matrix4f value)
-    {
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			glUniformMatrix4fv(uniforms.get(name), false,
-					value.get(stack.mallocFloat(16)));
-		}
-//        FloatBuffer buffer = BufferUtils.createFloatBuffer(4 * 4);
-//		value.get(buffer);
-//
-//        glUniformMatrix4fv(glGetUniformLocation(programID, name), false, buffer);
-    }
-
 	public void destroy() {
-		glDetachShader(programID, vertexID);
-		glDetachShader(programID, fragmentID);
+		if (vertexID != 0) glDetachShader(programID, vertexID);
+		if (fragmentID != 0) glDetachShader(programID, fragmentID);
 		glDeleteProgram(programID);
 	}
 
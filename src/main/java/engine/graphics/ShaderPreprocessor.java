@@ -0,0 +1,75 @@
+package main.java.engine.graphics;
+
+import main.java.engine.utils.VirtualFileSystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Препроцессор исходников GLSL перед glShaderSource.
+ *
+ * - #include "путь" подставляет файл через VirtualFileSystem; путь считается от каталога включающего файла.
+ * Каждый файл подставляется один раз, как с #pragma once.
+ * - Определения варианта (например "FOG" или "NUM_POINT_LIGHTS 1") вставляются строками #define сразу
+ * после #version; дальше ветвления по ним делает сам компилятор GLSL через #ifdef/#if.
+ * - Вокруг подставленных файлов ставятся директивы #line с номером файла, поэтому строки в сообщениях
+ * компилятора указывают на исходный файл; номера файлов перечислены в комментарии в начале результата.
+ */
+public class ShaderPreprocessor {
+	private static final String INCLUDE = "#include";
+
+	private final List<String> files = new ArrayList<>();
+	private final StringBuilder output = new StringBuilder();
+
+	private ShaderPreprocessor() {
+	}
+
+	public static String process(String path, String... defines) throws IOException {
+		ShaderPreprocessor preprocessor = new ShaderPreprocessor();
+		preprocessor.append(path, defines);
+		StringBuilder header = new StringBuilder();
+		for (int i = 0; i < preprocessor.files.size(); i++) {
+			header.append("// ").append(i).append(": ").append(preprocessor.files.get(i)).append('\n');
+		}
+		// список файлов нельзя ставить перед #version, поэтому он идёт в конце
+		return preprocessor.output.append(header).toString();
+	}
+
+	private void append(String path, String[] defines) throws IOException {
+		if (files.contains(path)) return;
+		int file = files.size();
+		files.add(path);
+
+		String[] lines = VirtualFileSystem.readString(path).split("\r?\n", -1);
+		if (file > 0) output.append("#line 1 ").append(file).append('\n');
+		for (int i = 0; i < lines.length; i++) {
+			String line = lines[i];
+			String trimmed = line.trim();
+			if (trimmed.startsWith(INCLUDE)) {
+				append(resolve(path, parseIncludePath(path, i, trimmed)), null);
+				output.append("#line ").append(i + 2).append(' ').append(file).append('\n');
+				continue;
+			}
+			output.append(line).append('\n');
+			if (trimmed.startsWith("#version")) {
+				if (defines != null) {
+					for (String define : defines) output.append("#define ").append(define).append('\n');
+				}
+				output.append("#line ").append(i + 2).append(' ').append(file).append('\n');
+			}
+		}
+	}
+
+	private static String parseIncludePath(String path, int line, String directive) throws IOException {
+		int start = directive.indexOf('"'), end = directive.lastIndexOf('"');
+		if (start < 0 || end <= start) throw new IOException(path + ":" + (line + 1) + ": malformed " + directive);
+		return directive.substring(start + 1, end);
+	}
+
+	private static String resolve(String including, String included) {
+		if (included.startsWith("/")) return included;
+		int slash = including.lastIndexOf('/');
+		return slash < 0 ? included : including.substring(0, slash + 1) + included;
+	}
+}
@@ -0,0 +1,60 @@
+package main.java.engine.graphics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Варианты одной пары шейдеров, собранные с разными наборами #define. Вариант компилируется при первом
+ * запросе (в потоке с контекстом OpenGL), поэтому собираются только те сочетания, которые действительно рисуются.
+ */
+public class ShaderVariants {
+	/** материал с текстурой: цвет берётся из массива текстур, а не из цветов материала */
+	public static final int TEXTURED = 1;
+	/** туман включён */
+	public static final int FOG = 1 << 1;
+	private static final int FEATURE_BITS = 2;
+
+	private final String vertexPath, fragmentPath;
+	private final Map<Integer, Shader> variants = new HashMap<>();
+
+	public ShaderVariants(String vertexPath, String fragmentPath) {
+		this.vertexPath = vertexPath;
+		this.fragmentPath = fragmentPath;
+	}
+
+	/**
+	 * @param features      сочетание флагов TEXTURED и FOG
+	 * @param pointLights   число точечных источников, которые считает шейдер (NUM_POINT_LIGHTS)
+	 */
+	public Shader get(int features, int pointLights) {
+		int key = pointLights << FEATURE_BITS | features;
+		Shader shader = variants.get(key);
+		if (shader == null) {
+			shader = new Shader(vertexPath, fragmentPath, getDefines(features, pointLights));
+			shader.create();
+			variants.put(key, shader);
+		}
+		return shader;
+	}
+
+	private static String[] getDefines(int features, int pointLights) {
+		String[] defines = new String[Integer.bitCount(features) + 1];
+		int i = 0;
+		if ((features & TEXTURED) != 0) defines[i++] = "TEXTURED";
+		if ((features & FOG) != 0) defines[i++] = "FOG";
+		defines[i] = "NUM_POINT_LIGHTS " + pointLights;
+		return defines;
+	}
+
+	/**
+	 * @return число уже собранных вариантов
+	 */
+	public int size() {
+		return variants.size();
+	}
+
+	public void destroy() {
+		for (Shader shader : variants.values()) shader.destroy();
+		variants.clear();
+	}
+}
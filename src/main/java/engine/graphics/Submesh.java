@@ -0,0 +1,59 @@
+package main.java.engine.graphics;
+
+/**
+ * Диапазон общего буфера меша, который рисуется одним вызовом glDrawElementsBaseVertex.
+ * Индексы внутри диапазона отсчитываются от baseVertex.
+ *
+ * Уровни детализации - отдельные диапазоны индексов поверх тех же вершин; уровень 0 - полный меш.
+ */
+public class Submesh {
+	private final int[] indexOffsets;
+	private final int[] indexCounts;
+	private final int baseVertex;
+	private final int vertexCount;
+	private final int materialIndex;
+
+	public Submesh(int indexOffset, int indexCount, int baseVertex, int vertexCount, int materialIndex) {
+		this(new int[] {indexOffset}, new int[] {indexCount}, baseVertex, vertexCount, materialIndex);
+	}
+
+	public Submesh(int[] indexOffsets, int[] indexCounts, int baseVertex, int vertexCount, int materialIndex) {
+		this.indexOffsets = indexOffsets;
+		this.indexCounts = indexCounts;
+		this.baseVertex = baseVertex;
+		this.vertexCount = vertexCount;
+		this.materialIndex = materialIndex;
+	}
+
+	public int getIndexOffset() {
+		return indexOffsets[0];
+	}
+
+	public int getIndexCount() {
+		return indexCounts[0];
+	}
+
+	public int getIndexOffset(int lod) {
+		return indexOffsets[lod];
+	}
+
+	public int getIndexCount(int lod) {
+		return indexCounts[lod];
+	}
+
+	public int getLodCount() {
+		return indexOffsets.length;
+	}
+
+	public int getBaseVertex() {
+		return baseVertex;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getMaterialIndex() {
+		return materialIndex;
+	}
+}
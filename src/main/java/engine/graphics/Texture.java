@@ -1,80 +1,119 @@
 package main.java.engine.graphics;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
 
-import static main.java.engine.utils.FileUtils.*;
+import main.java.engine.io.TextureCache;
+import org.joml.Vector4f;
 
-import org.lwjgl.BufferUtils;
 import static org.lwjgl.opengl.GL46C.*;
-import org.lwjgl.opengl.GL13;
-
-import static org.lwjgl.stb.STBImage.stbi_image_free;
-import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 
+/**
+ * Изображение материала. В OpenGL живёт слоем массива TextureArray: своим, если загружено через upload(),
+ * или общим с другими текстурами, если его разместил TexturePacker. Во втором случае текстура может занимать
+ * часть слоя-атласа, и координаты текстуры переводятся в неё через getUvTransform().
+ */
 public class Texture {
 	private String path;
-	private int format, internalFormat;
+	private TextureCompressor.Format compression;
 	private int width, height;
-	private int textureID;
-	private int channels;
-	private ByteBuffer data;
+	private CompressedImage image;
+	private boolean decoded;
+	private TextureArray array;
+	private int layer;
+	private final Vector4f uvTransform = new Vector4f(1, 1, 0, 0);
 	
 	public Texture(String path) {
+		this(path, null);
+	}
+
+	/**
+	 * @param compression формат сжатия, например BC5 для карт нормалей; null - BC1 или BC3 по наличию альфы
+	 */
+	public Texture(String path, TextureCompressor.Format compression) {
 		this.path = path;
+		this.compression = compression;
 	}
 	
-	public void create() {
-		IntBuffer w = BufferUtils.createIntBuffer(1);
-		IntBuffer h = BufferUtils.createIntBuffer(1);
-		IntBuffer chan = BufferUtils.createIntBuffer(1);
+	/**
+	 * Готовит сжатое изображение без обращения к OpenGL, поэтому может выполняться в фоновом потоке.
+	 * При попадании в TextureCache файл только отображается в память, иначе исходник декодируется и сжимается.
+	 */
+	public synchronized void decode() {
+		if (decoded) return;
 		try {
-			data = stbi_load_from_memory(resourceToByteBuffer(path), w, h, chan, 0);
-			this.width = w.get(0);
-			this.height = h.get(0);
-			this.channels = chan.get(0);
+			image = TextureCache.loadOrCompress(path, compression);
+			this.width = image.getWidth();
+			this.height = image.getHeight();
 		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		if (this.channels == 4){
-			this.internalFormat = GL_RGBA8;
-			this.format = GL_RGBA;
-		} else if (this.channels == 3){
-			this.internalFormat = GL_RGB8;
-			this.format = GL_RGB;
+			System.err.println("Couldn't load texture " + path + ": " + e.getMessage());
 		}
+		decoded = true;
+	}
 
-        this.textureID = glCreateTextures(GL_TEXTURE_2D);
+	/**
+	 * Готовит и сразу загружает изображение; для фоновой загрузки decode() и upload() вызываются по отдельности
+	 */
+	public void create() {
+		decode();
+		upload();
+	}
 
-        bind();
+	/**
+	 * Загружает изображение отдельным массивом из одного слоя со всеми mip-уровнями.
+	 * До этого getTextureID() возвращает заглушку 1x1. Выполняется в потоке с контекстом OpenGL.
+	 */
+	public synchronized void upload() {
+		if (image == null) return;
+		CompressedImage uploaded = image;
+		image = null;
+		place(TextureArray.create(uploaded.getFormat(), width, height, uploaded.getLevels(), new CompressedImage[] {uploaded}),
+				0, 1, 1, 0, 0);
+	}
 
-		glTextureStorage2D(this.textureID, 1, internalFormat, width, height);
-		glTextureParameteri(this.textureID, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-		glTextureParameteri(this.textureID, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-		glTextureParameteri(this.textureID, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
-		glTextureParameteri(this.textureID, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+	/**
+	 * Закрепляет текстуру за слоем массива; вызывается TexturePacker или upload().
+	 * Масштаб и смещение переводят координаты текстуры в её прямоугольник внутри слоя.
+	 */
+	synchronized void place(TextureArray array, int layer, float scaleU, float scaleV, float offsetU, float offsetV) {
+		if (this.array != null) this.array.release();
+		array.retain();
+		this.array = array;
+		this.layer = layer;
+		uvTransform.set(scaleU, scaleV, offsetU, offsetV);
+	}
 
-		glTextureSubImage2D(this.textureID, 0, 0, 0, width, height, format,  GL_UNSIGNED_BYTE, data);
+	/**
+	 * Забирает декодированное изображение, например чтобы скопировать его в общий слой
+	 */
+	synchronized CompressedImage takeImage() {
+		CompressedImage taken = image;
+		image = null;
+		return taken;
+	}
 
-        unbind();
+	synchronized CompressedImage getImage() {
+		return image;
+	}
 
-		if (data != null){
-			stbi_image_free(data);
-		}
+	public boolean isUploaded() {
+		return array != null;
 	}
 
 	public void bind(){
-		glBindTexture(GL_TEXTURE_2D, this.textureID);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, getTextureID());
 	}
 
 	public void unbind(){
-		glBindTexture(GL_TEXTURE_2D, 0);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
 	}
 	
 	public void destroy() {
-		GL13.glDeleteTextures(this.textureID);
+		if (array != null) array.release();
+		array = null;
+		if (image != null) {
+			image.free();
+			image = null;
+		}
 	}
 
 	public float getWidth() {
@@ -85,15 +124,21 @@ public class Texture {
 		return height;
 	}
 
+	/**
+	 * @return идентификатор массива, в котором лежит текстура, или заглушки, пока она не загружена
+	 */
 	public int getTextureID() {
-		return textureID;
+		return array != null ? array.getID() : TextureArray.getPlaceholder().getID();
 	}
 
-	public int getChannels() {
-		return channels;
+	public int getLayer() {
+		return layer;
 	}
 
-	public ByteBuffer getData() {
-		return data;
+	/**
+	 * @return (scaleU, scaleV, offsetU, offsetV) прямоугольника текстуры внутри слоя
+	 */
+	public Vector4f getUvTransform() {
+		return uvTransform;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package main.java.engine.graphics;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+/**
+ * Массив текстур GL_TEXTURE_2D_ARRAY: слои одного сжатого формата, размера и числа mip-уровней.
+ * Все текстуры, которые рисует главный шейдер, лежат в таких массивах, поэтому объекты с разными
+ * текстурами одного массива рисуются без перепривязки. Массив удаляется, когда его отпустят все текстуры.
+ */
+public class TextureArray {
+	private static final float MAX_ANISOTROPY = 16.0f;
+	private static float maxAnisotropy;
+	private static TextureArray placeholder;
+
+	private final int id;
+	private int references;
+
+	private TextureArray(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Создаёт массив и загружает в него слои; изображения после загрузки освобождаются.
+	 * Все слои должны быть одного формата и размера и иметь не меньше levels уровней.
+	 */
+	public static TextureArray create(TextureCompressor.Format format, int width, int height, int levels,
+									  CompressedImage[] layers) {
+		int id = glCreateTextures(GL_TEXTURE_2D_ARRAY);
+		glTextureStorage3D(id, levels, format.getGLFormat(), width, height, layers.length);
+		glTextureParameteri(id, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+		glTextureParameteri(id, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		glTextureParameterf(id, GL_TEXTURE_MAX_ANISOTROPY, getMaxAnisotropy());
+		glTextureParameteri(id, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+		glTextureParameteri(id, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+
+		for (int layer = 0; layer < layers.length; layer++) {
+			CompressedImage image = layers[layer];
+			for (int level = 0; level < levels; level++) {
+				glCompressedTextureSubImage3D(id, level, 0, 0, layer, image.getLevelWidth(level), image.getLevelHeight(level), 1,
+						format.getGLFormat(), image.getLevel(level));
+			}
+			image.free();
+		}
+		return new TextureArray(id);
+	}
+
+	private static float getMaxAnisotropy() {
+		if (maxAnisotropy == 0) maxAnisotropy = Math.min(glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY), MAX_ANISOTROPY);
+		return maxAnisotropy;
+	}
+
+	/**
+	 * Белый слой 1x1, который привязывается вместо текстур, ещё не загруженных в OpenGL
+	 */
+	public static TextureArray getPlaceholder() {
+		if (placeholder == null) {
+			int id = glCreateTextures(GL_TEXTURE_2D_ARRAY);
+			glTextureStorage3D(id, 1, GL_RGBA8, 1, 1, 1);
+			glTextureSubImage3D(id, 0, 0, 0, 0, 1, 1, 1, GL_RGBA, GL_UNSIGNED_BYTE, new int[] {0xFFFFFFFF});
+			placeholder = new TextureArray(id);
+		}
+		return placeholder;
+	}
+
+	public void retain() {
+		references++;
+	}
+
+	public void release() {
+		if (--references == 0) glDeleteTextures(id);
+	}
+
+	public int getID() {
+		return id;
+	}
+}
@@ -0,0 +1,385 @@
+package main.java.engine.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+import static org.lwjgl.opengl.GL46C.GL_COMPRESSED_RG_RGTC2;
+
+/**
+ * Кодировщик изображений в BC1/BC3/BC5 на процессоре, без обращения к OpenGL.
+ *
+ * Mip-уровни строятся усреднением 2x2 (как glGenerateTextureMipmap) и кодируются по отдельности.
+ * Цвет блока 4x4 кодируется по главной оси распределения цветов (PCA): концы отрезка берутся по крайним
+ * проекциям, слегка сдвинутым внутрь, индексы - по ближайшему цвету палитры. Одноканальные блоки
+ * (альфа в BC3, каналы в BC5) кодируются по минимуму и максимуму в режиме восьми значений.
+ */
+public class TextureCompressor {
+	public enum Format {
+		/** RGB без альфы, 8 байт на блок */
+		BC1(GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 8),
+		/** RGBA с плавной альфой, 16 байт на блок */
+		BC3(GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, 16),
+		/** два независимых канала (красный и зелёный), например карты нормалей, 16 байт на блок */
+		BC5(GL_COMPRESSED_RG_RGTC2, 16);
+
+		private final int glFormat, blockSize;
+
+		Format(int glFormat, int blockSize) {
+			this.glFormat = glFormat;
+			this.blockSize = blockSize;
+		}
+
+		public int getGLFormat() {
+			return glFormat;
+		}
+
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		public static Format fromGLFormat(int glFormat) {
+			for (Format format : values()) if (format.glFormat == glFormat) return format;
+			return null;
+		}
+	}
+
+	private final int[] red = new int[16], green = new int[16], blue = new int[16], alpha = new int[16];
+
+	/**
+	 * Кодирует изображение, декодированное stb, со всей цепочкой mip-уровней.
+	 *
+	 * @param format формат или null: тогда BC3 для изображений с непрозрачной не везде альфой, иначе BC1
+	 */
+	public static CompressedImage compress(ByteBuffer pixels, int width, int height, int channels, Format format) {
+		byte[] rgba = toRgba(pixels, width, height, channels);
+		if (format == null) format = isOpaque(rgba) ? Format.BC1 : Format.BC3;
+
+		int levels = CompressedImage.getLevelCount(width, height);
+		ByteBuffer data = MemoryUtil.memAlloc(CompressedImage.getDataSize(format, width, height, levels));
+		data.order(ByteOrder.LITTLE_ENDIAN);
+
+		TextureCompressor compressor = new TextureCompressor();
+		int levelWidth = width, levelHeight = height;
+		for (int level = 0; level < levels; level++) {
+			compressor.encodeLevel(rgba, levelWidth, levelHeight, format, data);
+			if (level + 1 < levels) {
+				rgba = downsample(rgba, levelWidth, levelHeight);
+				levelWidth = Math.max(1, levelWidth / 2);
+				levelHeight = Math.max(1, levelHeight / 2);
+			}
+		}
+		data.flip();
+		return new CompressedImage(format, width, height, levels, data, true);
+	}
+
+	private static byte[] toRgba(ByteBuffer pixels, int width, int height, int channels) {
+		byte[] rgba = new byte[width * height * 4];
+		for (int i = 0, src = 0, dst = 0; i < width * height; i++, src += channels, dst += 4) {
+			byte r = pixels.get(src);
+			switch (channels) {
+				case 1:
+					rgba[dst] = rgba[dst + 1] = rgba[dst + 2] = r;
+					rgba[dst + 3] = (byte) 0xFF;
+					break;
+				case 2: // серый + альфа
+					rgba[dst] = rgba[dst + 1] = rgba[dst + 2] = r;
+					rgba[dst + 3] = pixels.get(src + 1);
+					break;
+				default:
+					rgba[dst] = r;
+					rgba[dst + 1] = pixels.get(src + 1);
+					rgba[dst + 2] = pixels.get(src + 2);
+					rgba[dst + 3] = channels == 4 ? pixels.get(src + 3) : (byte) 0xFF;
+			}
+		}
+		return rgba;
+	}
+
+	private static boolean isOpaque(byte[] rgba) {
+		for (int i = 3; i < rgba.length; i += 4) if (rgba[i] != (byte) 0xFF) return false;
+		return true;
+	}
+
+	/**
+	 * Уменьшает уровень вдвое усреднением 2x2; у нечётной стороны последний столбец или строка повторяется
+	 */
+	static byte[] downsample(byte[] rgba, int width, int height) {
+		int newWidth = Math.max(1, width / 2), newHeight = Math.max(1, height / 2);
+		byte[] result = new byte[newWidth * newHeight * 4];
+		for (int y = 0; y < newHeight; y++) {
+			int y0 = Math.min(2 * y, height - 1) * width, y1 = Math.min(2 * y + 1, height - 1) * width;
+			for (int x = 0; x < newWidth; x++) {
+				int x0 = Math.min(2 * x, width - 1), x1 = Math.min(2 * x + 1, width - 1);
+				int p00 = (y0 + x0) * 4, p01 = (y0 + x1) * 4, p10 = (y1 + x0) * 4, p11 = (y1 + x1) * 4;
+				int dst = (y * newWidth + x) * 4;
+				for (int c = 0; c < 4; c++) {
+					result[dst + c] = (byte) (((rgba[p00 + c] & 0xFF) + (rgba[p01 + c] & 0xFF)
+							+ (rgba[p10 + c] & 0xFF) + (rgba[p11 + c] & 0xFF) + 2) >> 2);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Кодирует один уровень RGBA в out с текущей позиции
+	 */
+	static void encode(byte[] rgba, int width, int height, Format format, ByteBuffer out) {
+		out.order(ByteOrder.LITTLE_ENDIAN);
+		new TextureCompressor().encodeLevel(rgba, width, height, format, out);
+	}
+
+	/**
+	 * Декодирует один уровень обратно в RGBA; у BC5 синий канал нулевой, альфа непрозрачна
+	 */
+	static byte[] decode(ByteBuffer blocks, int width, int height, Format format) {
+		byte[] rgba = new byte[width * height * 4];
+		int[] first = new int[16], second = new int[16];
+		int offset = 0;
+		for (int blockY = 0; blockY < height; blockY += 4) {
+			for (int blockX = 0; blockX < width; blockX += 4) {
+				switch (format) {
+					case BC1:
+						decodeColour(blocks, offset, true, rgba, width, height, blockX, blockY);
+						break;
+					case BC3:
+						decodeChannel(blocks, offset, first);
+						decodeColour(blocks, offset + 8, false, rgba, width, height, blockX, blockY);
+						putChannel(first, 3, rgba, width, height, blockX, blockY);
+						break;
+					case BC5:
+						decodeChannel(blocks, offset, first);
+						decodeChannel(blocks, offset + 8, second);
+						putChannel(first, 0, rgba, width, height, blockX, blockY);
+						putChannel(second, 1, rgba, width, height, blockX, blockY);
+						break;
+				}
+				offset += format.getBlockSize();
+			}
+		}
+		if (format == Format.BC5) for (int p = 3; p < rgba.length; p += 4) rgba[p] = (byte) 0xFF;
+		return rgba;
+	}
+
+	/**
+	 * Блок цвета BC1; режим трёх цветов с чёрным четвёртым бывает только в самом BC1, в BC3 цветов всегда четыре
+	 */
+	private static void decodeColour(ByteBuffer blocks, int offset, boolean allowThreeColours, byte[] rgba,
+									 int width, int height, int blockX, int blockY) {
+		int colour0 = readShort(blocks, offset), colour1 = readShort(blocks, offset + 2);
+		int r0 = expand5(colour0 >> 11), g0 = expand6(colour0 >> 5 & 0x3F), b0 = expand5(colour0 & 0x1F);
+		int r1 = expand5(colour1 >> 11), g1 = expand6(colour1 >> 5 & 0x3F), b1 = expand5(colour1 & 0x1F);
+		int[] paletteR, paletteG, paletteB;
+		if (colour0 > colour1 || !allowThreeColours) {
+			paletteR = new int[] {r0, r1, (2 * r0 + r1) / 3, (r0 + 2 * r1) / 3};
+			paletteG = new int[] {g0, g1, (2 * g0 + g1) / 3, (g0 + 2 * g1) / 3};
+			paletteB = new int[] {b0, b1, (2 * b0 + b1) / 3, (b0 + 2 * b1) / 3};
+		} else {
+			paletteR = new int[] {r0, r1, (r0 + r1) / 2, 0};
+			paletteG = new int[] {g0, g1, (g0 + g1) / 2, 0};
+			paletteB = new int[] {b0, b1, (b0 + b1) / 2, 0};
+		}
+		int indices = readShort(blocks, offset + 4) | readShort(blocks, offset + 6) << 16;
+		for (int i = 0; i < 16; i++) {
+			int x = blockX + (i & 3), y = blockY + (i >> 2);
+			if (x >= width || y >= height) continue;
+			int index = indices >>> (2 * i) & 3, p = (y * width + x) * 4;
+			rgba[p] = (byte) paletteR[index];
+			rgba[p + 1] = (byte) paletteG[index];
+			rgba[p + 2] = (byte) paletteB[index];
+			rgba[p + 3] = (byte) 0xFF;
+		}
+	}
+
+	/**
+	 * Блок BC4: при первом опорном значении больше второго - восемь значений, иначе шесть, 0 и 255
+	 */
+	private static void decodeChannel(ByteBuffer blocks, int offset, int[] values) {
+		int value0 = blocks.get(offset) & 0xFF, value1 = blocks.get(offset + 1) & 0xFF;
+		long indices = 0;
+		for (int i = 0; i < 6; i++) indices |= (long) (blocks.get(offset + 2 + i) & 0xFF) << (8 * i);
+		for (int i = 0; i < 16; i++) {
+			int index = (int) (indices >>> (3 * i)) & 7;
+			if (index == 0) values[i] = value0;
+			else if (index == 1) values[i] = value1;
+			else if (value0 > value1) values[i] = ((8 - index) * value0 + (index - 1) * value1) / 7;
+			else if (index < 6) values[i] = ((6 - index) * value0 + (index - 1) * value1) / 5;
+			else values[i] = index == 6 ? 0 : 255;
+		}
+	}
+
+	private static void putChannel(int[] values, int channel, byte[] rgba, int width, int height, int blockX, int blockY) {
+		for (int i = 0; i < 16; i++) {
+			int x = blockX + (i & 3), y = blockY + (i >> 2);
+			if (x < width && y < height) rgba[(y * width + x) * 4 + channel] = (byte) values[i];
+		}
+	}
+
+	private static int readShort(ByteBuffer blocks, int offset) {
+		return (blocks.get(offset) & 0xFF) | (blocks.get(offset + 1) & 0xFF) << 8;
+	}
+
+	private void encodeLevel(byte[] rgba, int width, int height, Format format, ByteBuffer out) {
+		for (int blockY = 0; blockY < height; blockY += 4) {
+			for (int blockX = 0; blockX < width; blockX += 4) {
+				// блоки на краю дополняются повтором последнего столбца и строки
+				for (int i = 0; i < 16; i++) {
+					int x = Math.min(blockX + (i & 3), width - 1), y = Math.min(blockY + (i >> 2), height - 1);
+					int p = (y * width + x) * 4;
+					red[i] = rgba[p] & 0xFF;
+					green[i] = rgba[p + 1] & 0xFF;
+					blue[i] = rgba[p + 2] & 0xFF;
+					alpha[i] = rgba[p + 3] & 0xFF;
+				}
+				switch (format) {
+					case BC1:
+						encodeColour(out);
+						break;
+					case BC3:
+						encodeChannel(alpha, out);
+						encodeColour(out);
+						break;
+					case BC5:
+						encodeChannel(red, out);
+						encodeChannel(green, out);
+						break;
+				}
+			}
+		}
+	}
+
+	private void encodeColour(ByteBuffer out) {
+		float meanR = 0, meanG = 0, meanB = 0;
+		for (int i = 0; i < 16; i++) {
+			meanR += red[i];
+			meanG += green[i];
+			meanB += blue[i];
+		}
+		meanR /= 16;
+		meanG /= 16;
+		meanB /= 16;
+
+		float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+		for (int i = 0; i < 16; i++) {
+			float r = red[i] - meanR, g = green[i] - meanG, b = blue[i] - meanB;
+			rr += r * r;
+			rg += r * g;
+			rb += r * b;
+			gg += g * g;
+			gb += g * b;
+			bb += b * b;
+		}
+
+		// главная ось: несколько шагов степенного метода от столбца с наибольшей дисперсией
+		float axisR, axisG, axisB;
+		if (rr >= gg && rr >= bb) {
+			axisR = rr; axisG = rg; axisB = rb;
+		} else if (gg >= bb) {
+			axisR = rg; axisG = gg; axisB = gb;
+		} else {
+			axisR = rb; axisG = gb; axisB = bb;
+		}
+		for (int iteration = 0; iteration < 4; iteration++) {
+			float r = rr * axisR + rg * axisG + rb * axisB;
+			float g = rg * axisR + gg * axisG + gb * axisB;
+			float b = rb * axisR + gb * axisG + bb * axisB;
+			float scale = Math.max(Math.abs(r), Math.max(Math.abs(g), Math.abs(b)));
+			if (scale == 0) break;
+			axisR = r / scale;
+			axisG = g / scale;
+			axisB = b / scale;
+		}
+		float length = (float) Math.sqrt(axisR * axisR + axisG * axisG + axisB * axisB);
+
+		int colour0, colour1;
+		if (length < 1e-6f) {
+			colour0 = colour1 = pack565(meanR, meanG, meanB);
+		} else {
+			axisR /= length;
+			axisG /= length;
+			axisB /= length;
+			float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+			for (int i = 0; i < 16; i++) {
+				float t = (red[i] - meanR) * axisR + (green[i] - meanG) * axisG + (blue[i] - meanB) * axisB;
+				min = Math.min(min, t);
+				max = Math.max(max, t);
+			}
+			float inset = (max - min) / 16;
+			min += inset;
+			max -= inset;
+			colour0 = pack565(meanR + axisR * max, meanG + axisG * max, meanB + axisB * max);
+			colour1 = pack565(meanR + axisR * min, meanG + axisG * min, meanB + axisB * min);
+		}
+
+		// colour0 > colour1 включает режим четырёх цветов без прозрачности
+		if (colour0 < colour1) {
+			int swap = colour0;
+			colour0 = colour1;
+			colour1 = swap;
+		}
+		int indices = 0;
+		if (colour0 != colour1) {
+			int r0 = expand5(colour0 >> 11), g0 = expand6(colour0 >> 5 & 0x3F), b0 = expand5(colour0 & 0x1F);
+			int r1 = expand5(colour1 >> 11), g1 = expand6(colour1 >> 5 & 0x3F), b1 = expand5(colour1 & 0x1F);
+			int[] paletteR = {r0, r1, (2 * r0 + r1) / 3, (r0 + 2 * r1) / 3};
+			int[] paletteG = {g0, g1, (2 * g0 + g1) / 3, (g0 + 2 * g1) / 3};
+			int[] paletteB = {b0, b1, (2 * b0 + b1) / 3, (b0 + 2 * b1) / 3};
+			for (int i = 0; i < 16; i++) {
+				int best = 0, bestError = Integer.MAX_VALUE;
+				for (int j = 0; j < 4; j++) {
+					int dr = red[i] - paletteR[j], dg = green[i] - paletteG[j], db = blue[i] - paletteB[j];
+					int error = dr * dr + dg * dg + db * db;
+					if (error < bestError) {
+						bestError = error;
+						best = j;
+					}
+				}
+				indices |= best << (2 * i);
+			}
+		}
+		out.putShort((short) colour0).putShort((short) colour1).putInt(indices);
+	}
+
+	/**
+	 * Блок BC4: два опорных значения и 16 трёхбитных индексов
+	 */
+	private static void encodeChannel(int[] values, ByteBuffer out) {
+		int min = 255, max = 0;
+		for (int i = 0; i < 16; i++) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		long indices = 0;
+		if (max > min) {
+			int range = max - min;
+			for (int i = 0; i < 16; i++) {
+				// шаг от min (0) до max (7); индекс 0 - max, 1 - min, 2..7 - промежуточные от max к min
+				int step = ((values[i] - min) * 14 + range) / (2 * range);
+				int index = step == 7 ? 0 : step == 0 ? 1 : 8 - step;
+				indices |= (long) index << (3 * i);
+			}
+		}
+		out.put((byte) max).put((byte) min);
+		for (int i = 0; i < 6; i++) out.put((byte) (indices >>> (8 * i)));
+	}
+
+	private static int pack565(float r, float g, float b) {
+		return quantize(r, 31) << 11 | quantize(g, 63) << 5 | quantize(b, 31);
+	}
+
+	private static int quantize(float value, int max) {
+		return Math.round(Math.max(0, Math.min(255, value)) * max / 255);
+	}
+
+	private static int expand5(int value) {
+		return value << 3 | value >> 2;
+	}
+
+	private static int expand6(int value) {
+		return value << 2 | value >> 4;
+	}
+}
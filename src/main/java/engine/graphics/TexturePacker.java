@@ -0,0 +1,193 @@
+package main.java.engine.graphics;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Раскладывает декодированные текстуры по общим массивам TextureArray, чтобы объекты с разными текстурами
+ * рисовались без перепривязки.
+ *
+ * Для каждого формата сжатия страницей считается наибольший размер со сторонами-степенями двойки:
+ * - текстуры размера страницы и все текстуры, которые нельзя уложить в атлас, становятся слоями массива
+ * своего размера целиком;
+ * - меньшие текстуры со сторонами-степенями двойки не меньше MIN_ATLAS_SIZE укладываются в слои-атласы
+ * размера страницы. Каждая стоит в позиции, кратной своему размеру, поэтому пока она занимает целые блоки 4x4,
+ * её блоки копируются в атлас без перекодирования. Атласы лежат в отдельном массиве с полной цепочкой уровней
+ * страницы: уровни, на которых текстура уже меньше блока, строятся из предыдущего уровня слоя декодированием,
+ * усреднением 2x2 и повторным сжатием.
+ *
+ * Промежутков между текстурами атласа нет; чтобы фильтрация не захватывала соседей, шейдеры отступают
+ * от краёв прямоугольника текстуры на размер выборки (atlasCoord в common/atlas.glsl).
+ */
+public class TexturePacker {
+	public static final int MIN_ATLAS_SIZE = 64;
+	private static final int BLOCK = 4;
+
+	/**
+	 * Размещает все текстуры, у которых есть декодированное изображение, и загружает массивы в OpenGL
+	 */
+	public static void pack(Collection<Texture> textures) {
+		Map<TextureCompressor.Format, List<Texture>> byFormat = new LinkedHashMap<>();
+		for (Texture texture : textures) {
+			CompressedImage image = texture.getImage();
+			if (image != null) byFormat.computeIfAbsent(image.getFormat(), format -> new ArrayList<>()).add(texture);
+		}
+		for (Map.Entry<TextureCompressor.Format, List<Texture>> entry : byFormat.entrySet()) {
+			packFormat(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private static void packFormat(TextureCompressor.Format format, List<Texture> textures) {
+		int pageWidth = 0, pageHeight = 0;
+		for (Texture texture : textures) {
+			CompressedImage image = texture.getImage();
+			if (isPowerOfTwo(image.getWidth()) && isPowerOfTwo(image.getHeight())
+					&& (long) image.getWidth() * image.getHeight() > (long) pageWidth * pageHeight) {
+				pageWidth = image.getWidth();
+				pageHeight = image.getHeight();
+			}
+		}
+
+		Map<Long, List<Texture>> layers = new LinkedHashMap<>();
+		List<Texture> atlased = new ArrayList<>();
+		for (Texture texture : textures) {
+			CompressedImage image = texture.getImage();
+			int width = image.getWidth(), height = image.getHeight();
+			boolean fitsAtlas = isPowerOfTwo(width) && isPowerOfTwo(height)
+					&& Math.min(width, height) >= MIN_ATLAS_SIZE && width <= pageWidth && height <= pageHeight
+					&& (width < pageWidth || height < pageHeight);
+			if (fitsAtlas) {
+				atlased.add(texture);
+			} else {
+				layers.computeIfAbsent((long) width << 32 | height, size -> new ArrayList<>()).add(texture);
+			}
+		}
+
+		for (List<Texture> group : layers.values()) {
+			CompressedImage first = group.get(0).getImage();
+			int levels = Integer.MAX_VALUE;
+			CompressedImage[] images = new CompressedImage[group.size()];
+			for (int i = 0; i < images.length; i++) {
+				images[i] = group.get(i).takeImage();
+				levels = Math.min(levels, images[i].getLevels());
+			}
+			TextureArray array = TextureArray.create(format, first.getWidth(), first.getHeight(), levels, images);
+			for (int i = 0; i < images.length; i++) group.get(i).place(array, i, 1, 1, 0, 0);
+		}
+
+		if (!atlased.isEmpty()) packAtlas(format, pageWidth, pageHeight, atlased);
+	}
+
+	private static void packAtlas(TextureCompressor.Format format, int pageWidth, int pageHeight, List<Texture> textures) {
+		// крупные первыми: позиции, кратные размеру, тогда плотно заполняют страницу
+		textures.sort(Comparator.comparingLong((Texture texture) ->
+				(long) texture.getImage().getWidth() * texture.getImage().getHeight()).reversed());
+
+		List<List<int[]>> pages = new ArrayList<>();
+		int[][] placements = new int[textures.size()][];
+		int[] copiedLevels = new int[textures.size()];
+		int levels = CompressedImage.getLevelCount(pageWidth, pageHeight), minCopiedLevels = levels;
+		for (int i = 0; i < textures.size(); i++) {
+			CompressedImage image = textures.get(i).getImage();
+			int width = image.getWidth(), height = image.getHeight();
+			// уровни, на которых текстура ещё занимает целые блоки
+			copiedLevels[i] = Math.min(image.getLevels(),
+					Integer.numberOfTrailingZeros(Math.min(width, height) / BLOCK) + 1);
+			minCopiedLevels = Math.min(minCopiedLevels, copiedLevels[i]);
+
+			int[] placement = null;
+			for (int page = 0; placement == null; page++) {
+				if (page == pages.size()) pages.add(new ArrayList<>());
+				int[] position = findPosition(pages.get(page), pageWidth, pageHeight, width, height);
+				if (position != null) {
+					placement = new int[] {page, position[0], position[1], width, height};
+					pages.get(page).add(placement);
+				}
+			}
+			placements[i] = placement;
+		}
+
+		CompressedImage[] layers = new CompressedImage[pages.size()];
+		for (int page = 0; page < layers.length; page++) {
+			ByteBuffer data = MemoryUtil.memCalloc(CompressedImage.getDataSize(format, pageWidth, pageHeight, levels));
+			layers[page] = new CompressedImage(format, pageWidth, pageHeight, levels, data, true);
+		}
+		CompressedImage[] images = new CompressedImage[textures.size()];
+		for (int i = 0; i < images.length; i++) images[i] = textures.get(i).takeImage();
+		for (int level = 0; level < levels; level++) {
+			if (level >= minCopiedLevels) {
+				for (CompressedImage layer : layers) downsampleLevel(layer, level);
+			}
+			for (int i = 0; i < images.length; i++) {
+				int[] placement = placements[i];
+				if (level < copiedLevels[i]) {
+					copyBlocks(images[i], layers[placement[0]], level, placement[1] >> level, placement[2] >> level);
+				}
+			}
+		}
+		for (CompressedImage image : images) image.free();
+
+		TextureArray array = TextureArray.create(format, pageWidth, pageHeight, levels, layers);
+		for (int i = 0; i < textures.size(); i++) {
+			int[] placement = placements[i];
+			textures.get(i).place(array, placement[0], (float) placement[3] / pageWidth, (float) placement[4] / pageHeight,
+					(float) placement[1] / pageWidth, (float) placement[2] / pageHeight);
+		}
+	}
+
+	/**
+	 * Ищет свободную позицию, кратную размеру текстуры; страница - список занятых прямоугольников {слой, x, y, w, h}
+	 */
+	private static int[] findPosition(List<int[]> placed, int pageWidth, int pageHeight, int width, int height) {
+		for (int y = 0; y + height <= pageHeight; y += height) {
+			for (int x = 0; x + width <= pageWidth; x += width) {
+				boolean free = true;
+				for (int[] other : placed) {
+					if (x < other[1] + other[3] && other[1] < x + width && y < other[2] + other[4] && other[2] < y + height) {
+						free = false;
+						break;
+					}
+				}
+				if (free) return new int[] {x, y};
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Копирует блоки одного mip-уровня изображения в слой атласа построчно
+	 */
+	private static void copyBlocks(CompressedImage source, CompressedImage target, int level, int x, int y) {
+		int blockSize = source.getFormat().getBlockSize();
+		int rowBlocks = source.getLevelWidth(level) / BLOCK, rows = source.getLevelHeight(level) / BLOCK;
+		int targetRowBlocks = target.getLevelWidth(level) / BLOCK;
+		ByteBuffer from = source.getLevel(level);
+		ByteBuffer to = target.getLevel(level);
+		for (int row = 0; row < rows; row++) {
+			long fromAddress = MemoryUtil.memAddress(from) + (long) row * rowBlocks * blockSize;
+			long toAddress = MemoryUtil.memAddress(to) + ((long) (y / BLOCK + row) * targetRowBlocks + x / BLOCK) * blockSize;
+			MemoryUtil.memCopy(fromAddress, toAddress, (long) rowBlocks * blockSize);
+		}
+	}
+
+	/**
+	 * Строит уровень слоя из предыдущего: декодирует его, усредняет 2x2 и сжимает заново
+	 */
+	private static void downsampleLevel(CompressedImage layer, int level) {
+		int width = layer.getLevelWidth(level - 1), height = layer.getLevelHeight(level - 1);
+		byte[] rgba = TextureCompressor.decode(layer.getLevel(level - 1), width, height, layer.getFormat());
+		TextureCompressor.encode(TextureCompressor.downsample(rgba, width, height),
+				layer.getLevelWidth(level), layer.getLevelHeight(level), layer.getFormat(), layer.getLevel(level));
+	}
+
+	private static boolean isPowerOfTwo(int value) {
+		return value > 0 && (value & (value - 1)) == 0;
+	}
+}
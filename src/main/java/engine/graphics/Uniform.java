@@ -0,0 +1,67 @@
+package main.java.engine.graphics;
+
+import org.joml.Matrix4f;
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+/**
+ * Расположение uniform-переменной, найденное один раз при создании программы.
+ * Сеттеры работают с текущей привязанной программой и ничего не выделяют.
+ */
+public class Uniform {
+	private final int location;
+
+	Uniform(int location) {
+		this.location = location;
+	}
+
+	public void set(int value) {
+		glUniform1i(location, value);
+	}
+
+	public void set(boolean value) {
+		glUniform1i(location, value ? 1 : 0);
+	}
+
+	public void set(float value) {
+		glUniform1f(location, value);
+	}
+
+	public void set(float x, float y) {
+		glUniform2f(location, x, y);
+	}
+
+	public void set(float x, float y, float z) {
+		glUniform3f(location, x, y, z);
+	}
+
+	public void set(float x, float y, float z, float w) {
+		glUniform4f(location, x, y, z, w);
+	}
+
+	public void set(Vector2f value) {
+		glUniform2f(location, value.x, value.y);
+	}
+
+	public void set(Vector3f value) {
+		glUniform3f(location, value.x, value.y, value.z);
+	}
+
+	public void set(Vector4f value) {
+		glUniform4f(location, value.x, value.y, value.z, value.w);
+	}
+
+	public void set(Matrix4f value) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			glUniformMatrix4fv(location, false, value.get(stack.mallocFloat(16)));
+		}
+	}
+
+	public int getLocation() {
+		return location;
+	}
+}
@@ -0,0 +1,137 @@
+package main.java.engine.io;
+
+import main.java.engine.graphics.Mesh;
+import main.java.engine.graphics.Texture;
+import main.java.engine.graphics.TexturePacker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Параллельная загрузка ресурсов.
+ *
+ * Импорт моделей (Assimp или кэш) и декодирование текстур (stb) выполняются в пуле потоков независимо
+ * друг от друга. Каждая задача возвращает действие загрузки в OpenGL, которое поток с контекстом
+ * выполняет по мере готовности через uploadCompleted()/uploadAll(). Пока текстура не загружена,
+ * вместо неё привязывается заглушка 1x1.
+ *
+ * uploadCompleted() загружает каждую готовую текстуру отдельным массивом, а uploadAll() дожидается
+ * всех текстур и раскладывает их по общим массивам и атласам через TexturePacker.
+ */
+public class AssetLoader {
+	private final ExecutorService executor;
+	private final CompletionService<Runnable> completion;
+	private final List<Texture> decodedTextures = new ArrayList<>();
+	private int pending;
+
+	public AssetLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public AssetLoader(int threads) {
+		AtomicInteger counter = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "asset-loader-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		completion = new ExecutorCompletionService<>(executor);
+	}
+
+	/**
+	 * Запускает импорт модели и декодирование её текстуры. Future завершается, когда геометрия
+	 * загружена в OpenGL; текстура может догрузиться позже.
+	 */
+	public Future<Mesh> loadModel(String filePath, String texturePath) {
+		Texture texture = loadTexture(texturePath);
+		CompletableFuture<Mesh> result = new CompletableFuture<>();
+		submit(() -> {
+			try {
+				Mesh mesh = ModelLoader.loadModel(filePath, texture);
+				return () -> {
+					mesh.create();
+					result.complete(mesh);
+				};
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+				throw e;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Запускает декодирование текстуры; возвращённый объект сразу можно привязывать
+	 */
+	public Texture loadTexture(String path) {
+		Texture texture = new Texture(path);
+		submit(() -> {
+			texture.decode();
+			return () -> decodedTextures.add(texture);
+		});
+		return texture;
+	}
+
+	private void submit(Callable<Runnable> task) {
+		pending++;
+		completion.submit(task);
+	}
+
+	/**
+	 * Загружает в OpenGL все уже готовые ресурсы, не блокируя поток
+	 */
+	public void uploadCompleted() {
+		Future<Runnable> future;
+		while (pending > 0 && (future = completion.poll()) != null) {
+			upload(future);
+		}
+		for (Texture texture : decodedTextures) texture.upload();
+		decodedTextures.clear();
+	}
+
+	/**
+	 * Загружает ресурсы по мере готовности, пока не будут обработаны все запрошенные;
+	 * текстуры раскладываются по общим массивам, когда готовы все
+	 */
+	public void uploadAll() {
+		while (pending > 0) {
+			try {
+				upload(completion.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		TexturePacker.pack(decodedTextures);
+		decodedTextures.clear();
+	}
+
+	private void upload(Future<Runnable> future) {
+		pending--;
+		try {
+			future.get().run();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("Couldn't load asset: " + e.getCause());
+			e.getCause().printStackTrace();
+		}
+	}
+
+	public boolean isDone() {
+		return pending == 0;
+	}
+
+	public void destroy() {
+		executor.shutdownNow();
+	}
+}
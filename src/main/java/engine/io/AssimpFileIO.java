@@ -0,0 +1,107 @@
+package main.java.engine.io;
+
+import main.java.engine.utils.Resource;
+import main.java.engine.utils.VirtualFileSystem;
+import org.lwjgl.assimp.AIFile;
+import org.lwjgl.assimp.AIFileCloseProc;
+import org.lwjgl.assimp.AIFileFlushProc;
+import org.lwjgl.assimp.AIFileIO;
+import org.lwjgl.assimp.AIFileOpenProc;
+import org.lwjgl.assimp.AIFileReadProc;
+import org.lwjgl.assimp.AIFileSeek;
+import org.lwjgl.assimp.AIFileTellProc;
+import org.lwjgl.assimp.AIFileWriteProc;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.lwjgl.assimp.Assimp.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+/**
+ * Файловая система для Assimp поверх VirtualFileSystem: модель и связанные с ней файлы (.mtl и т.п.)
+ * читаются прямо из отображённых в память или пуловых буферов, без копий в куче Java.
+ *
+ * Обратные вызовы создаются один раз и общие для всех открытых файлов; состояние файла (ресурс и позиция)
+ * ищется по адресу структуры aiFile. Импорт может идти из нескольких потоков одновременно.
+ */
+public class AssimpFileIO {
+	private static final Map<Long, OpenFile> files = new ConcurrentHashMap<>();
+
+	private static final AIFileReadProc READ = AIFileReadProc.create(AssimpFileIO::read);
+	private static final AIFileWriteProc WRITE = AIFileWriteProc.create((pFile, pBuffer, size, count) -> 0);
+	private static final AIFileTellProc TELL = AIFileTellProc.create(pFile -> files.get(pFile).position);
+	private static final AIFileTellProc SIZE = AIFileTellProc.create(pFile -> files.get(pFile).size);
+	private static final AIFileSeek SEEK = AIFileSeek.create(AssimpFileIO::seek);
+	private static final AIFileFlushProc FLUSH = AIFileFlushProc.create(pFile -> { });
+	private static final AIFileOpenProc OPEN = AIFileOpenProc.create(AssimpFileIO::open);
+	private static final AIFileCloseProc CLOSE = AIFileCloseProc.create(AssimpFileIO::close);
+
+	private static AIFileIO fileIO;
+
+	/**
+	 * @return структура для aiImportFileEx; живёт всё время работы программы
+	 */
+	public static synchronized AIFileIO get() {
+		if (fileIO == null) fileIO = AIFileIO.calloc().OpenProc(OPEN).CloseProc(CLOSE);
+		return fileIO;
+	}
+
+	private static long open(long pFileIO, long fileName, long openMode) {
+		String name = MemoryUtil.memUTF8(fileName);
+		if (MemoryUtil.memUTF8(openMode).indexOf('w') >= 0) return NULL;
+		try {
+			Resource resource = VirtualFileSystem.open(name);
+			AIFile file = AIFile.calloc()
+					.ReadProc(READ)
+					.WriteProc(WRITE)
+					.TellProc(TELL)
+					.FileSizeProc(SIZE)
+					.SeekProc(SEEK)
+					.FlushProc(FLUSH);
+			files.put(file.address(), new OpenFile(resource));
+			return file.address();
+		} catch (IOException e) {
+			// Assimp сам пробует несколько имён и сообщает об ошибке, если файл так и не нашёлся
+			return NULL;
+		}
+	}
+
+	private static void close(long pFileIO, long pFile) {
+		OpenFile file = files.remove(pFile);
+		if (file != null) file.resource.close();
+		AIFile.create(pFile).free();
+	}
+
+	private static long read(long pFile, long pBuffer, long size, long count) {
+		OpenFile file = files.get(pFile);
+		if (size == 0) return 0;
+		long items = Math.min(count, (file.size - file.position) / size);
+		MemoryUtil.memCopy(file.address + file.position, pBuffer, items * size);
+		file.position += items * size;
+		return items;
+	}
+
+	private static int seek(long pFile, long offset, int origin) {
+		OpenFile file = files.get(pFile);
+		long base = origin == aiOrigin_SET ? 0 : origin == aiOrigin_CUR ? file.position : file.size;
+		long position = base + offset;
+		if (position < 0 || position > file.size) return aiReturn_FAILURE;
+		file.position = position;
+		return aiReturn_SUCCESS;
+	}
+
+	private static class OpenFile {
+		private final Resource resource;
+		private final long address, size;
+		private long position;
+
+		private OpenFile(Resource resource) {
+			this.resource = resource;
+			address = MemoryUtil.memAddress(resource.getData());
+			size = resource.size();
+		}
+	}
+}
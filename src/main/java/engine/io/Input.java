@@ -6,53 +6,172 @@ import org.lwjgl.glfw.GLFWKeyCallback;
 import org.lwjgl.glfw.GLFWMouseButtonCallback;
 import org.lwjgl.glfw.GLFWScrollCallback;
 
+import java.util.Arrays;
+
+/**
+ * Ввод с клавиатуры и мыши по шагам симуляции.
+ *
+ * Колбэки GLFW только кладут события с отметкой System.nanoTime в InputQueue. Шаг симуляции вызывает
+ * beginTick() со своим временем и забирает события не позже него; по ним обновляется состояние, которое
+ * видят геттеры до следующего шага: нажатые клавиши, фронты нажатия и отпускания за шаг, накопленное
+ * смещение мыши и сами события шага. Короткое нажатие между шагами не теряется, а фронт срабатывает
+ * один раз, сколько бы кадров ни держалась клавиша.
+ */
 public class Input {
-	private static boolean[] keys = new boolean[GLFW.GLFW_KEY_LAST];
-	private static boolean[] buttons = new boolean[GLFW.GLFW_MOUSE_BUTTON_LAST];
-	private static double mouseX, mouseY;
+	private static final InputQueue queue = new InputQueue(1024);
+
+	// состояние шага; читается и меняется только потоком симуляции
+	private static boolean[] keys = new boolean[GLFW.GLFW_KEY_LAST + 1];
+	private static boolean[] keysPressed = new boolean[GLFW.GLFW_KEY_LAST + 1];
+	private static boolean[] keysReleased = new boolean[GLFW.GLFW_KEY_LAST + 1];
+	private static boolean[] buttons = new boolean[GLFW.GLFW_MOUSE_BUTTON_LAST + 1];
+	private static boolean[] buttonsPressed = new boolean[GLFW.GLFW_MOUSE_BUTTON_LAST + 1];
+	private static boolean[] buttonsReleased = new boolean[GLFW.GLFW_MOUSE_BUTTON_LAST + 1];
+	private static double mouseX = Double.NaN, mouseY = Double.NaN;
+	private static double mouseDeltaX, mouseDeltaY;
 	private static double scrollX, scrollY;
-	
+	private static double scrollDeltaX, scrollDeltaY;
+
+	// события последнего шага
+	private static long[] eventTimes = new long[64];
+	private static int[] eventTypes = new int[64], eventCodes = new int[64], eventActions = new int[64];
+	private static double[] eventXs = new double[64], eventYs = new double[64];
+	private static int eventCount;
+
 	private GLFWKeyCallback keyboard;
 	private GLFWCursorPosCallback mouseMove;
 	private GLFWMouseButtonCallback mouseButtons;
 	private GLFWScrollCallback mouseScroll;
-	
+
 	public Input() {
 		keyboard = new GLFWKeyCallback() {
 			public void invoke(long window, int key, int scancode, int action, int mods) {
-				keys[key] = (action != GLFW.GLFW_RELEASE);
+				if (key >= 0) queue.push(System.nanoTime(), InputQueue.KEY, key, action, 0, 0);
 			}
 		};
-		
+
 		mouseMove = new GLFWCursorPosCallback() {
 			public void invoke(long window, double xpos, double ypos) {
-				mouseX = xpos;
-				mouseY = ypos;
+				queue.push(System.nanoTime(), InputQueue.CURSOR, 0, 0, xpos, ypos);
 			}
 		};
-		
+
 		mouseButtons = new GLFWMouseButtonCallback() {
 			public void invoke(long window, int button, int action, int mods) {
-				buttons[button] = (action != GLFW.GLFW_RELEASE);
+				queue.push(System.nanoTime(), InputQueue.BUTTON, button, action, 0, 0);
 			}
 		};
-		
+
 		mouseScroll = new GLFWScrollCallback() {
 			public void invoke(long window, double offsetx, double offsety) {
-				scrollX += offsetx;
-				scrollY += offsety;
+				queue.push(System.nanoTime(), InputQueue.SCROLL, 0, 0, offsetx, offsety);
 			}
 		};
 	}
-	
+
+	/**
+	 * Начинает шаг симуляции: сбрасывает фронты и смещения прошлого шага и применяет события,
+	 * пришедшие не позже time. Более поздние события остаются следующему шагу.
+	 *
+	 * @param time время шага по System.nanoTime
+	 */
+	public static void beginTick(long time) {
+		Arrays.fill(keysPressed, false);
+		Arrays.fill(keysReleased, false);
+		Arrays.fill(buttonsPressed, false);
+		Arrays.fill(buttonsReleased, false);
+		mouseDeltaX = mouseDeltaY = 0;
+		scrollDeltaX = scrollDeltaY = 0;
+		eventCount = 0;
+
+		while (queue.hasNext() && queue.peekTime() - time <= 0) {
+			int type = queue.peekType(), code = queue.peekCode(), action = queue.peekAction();
+			double x = queue.peekX(), y = queue.peekY();
+			recordEvent(queue.peekTime(), type, code, action, x, y);
+			queue.advance();
+
+			switch (type) {
+				case InputQueue.KEY:
+					if (code < keys.length) applyAction(keys, keysPressed, keysReleased, code, action);
+					break;
+				case InputQueue.BUTTON:
+					if (code < buttons.length) applyAction(buttons, buttonsPressed, buttonsReleased, code, action);
+					break;
+				case InputQueue.CURSOR:
+					// первое положение курсора только запоминается, чтобы камера не прыгала
+					if (!Double.isNaN(mouseX)) {
+						mouseDeltaX += x - mouseX;
+						mouseDeltaY += y - mouseY;
+					}
+					mouseX = x;
+					mouseY = y;
+					break;
+				case InputQueue.SCROLL:
+					scrollDeltaX += x;
+					scrollDeltaY += y;
+					scrollX += x;
+					scrollY += y;
+					break;
+			}
+		}
+	}
+
+	private static void applyAction(boolean[] down, boolean[] pressed, boolean[] released, int code, int action) {
+		if (action == GLFW.GLFW_PRESS) {
+			down[code] = true;
+			pressed[code] = true;
+		} else if (action == GLFW.GLFW_RELEASE) {
+			down[code] = false;
+			released[code] = true;
+		}
+	}
+
+	private static void recordEvent(long time, int type, int code, int action, double x, double y) {
+		if (eventCount == eventTimes.length) {
+			int capacity = eventCount * 2;
+			eventTimes = Arrays.copyOf(eventTimes, capacity);
+			eventTypes = Arrays.copyOf(eventTypes, capacity);
+			eventCodes = Arrays.copyOf(eventCodes, capacity);
+			eventActions = Arrays.copyOf(eventActions, capacity);
+			eventXs = Arrays.copyOf(eventXs, capacity);
+			eventYs = Arrays.copyOf(eventYs, capacity);
+		}
+		eventTimes[eventCount] = time;
+		eventTypes[eventCount] = type;
+		eventCodes[eventCount] = code;
+		eventActions[eventCount] = action;
+		eventXs[eventCount] = x;
+		eventYs[eventCount] = y;
+		eventCount++;
+	}
+
 	public static boolean isKeyDown(int key) {
 		return keys[key];
 	}
-	
+
+	/**
+	 * @return была ли клавиша нажата за последний шаг (повторы при удержании не считаются)
+	 */
+	public static boolean wasKeyPressed(int key) {
+		return keysPressed[key];
+	}
+
+	public static boolean wasKeyReleased(int key) {
+		return keysReleased[key];
+	}
+
 	public static boolean isButtonDown(int button) {
 		return buttons[button];
 	}
-	
+
+	public static boolean wasButtonPressed(int button) {
+		return buttonsPressed[button];
+	}
+
+	public static boolean wasButtonReleased(int button) {
+		return buttonsReleased[button];
+	}
+
 	public void destroy() {
 		keyboard.free();
 		mouseMove.free();
@@ -67,7 +186,18 @@ public class Input {
 	public static double getMouseY() {
 		return mouseY;
 	}
-	
+
+	/**
+	 * @return смещение курсора за последний шаг, сумма всех его перемещений
+	 */
+	public static double getMouseDeltaX() {
+		return mouseDeltaX;
+	}
+
+	public static double getMouseDeltaY() {
+		return mouseDeltaY;
+	}
+
 	public static double getScrollX() {
 		return scrollX;
 	}
@@ -76,6 +206,64 @@ public class Input {
 		return scrollY;
 	}
 
+	public static double getScrollDeltaX() {
+		return scrollDeltaX;
+	}
+
+	public static double getScrollDeltaY() {
+		return scrollDeltaY;
+	}
+
+	/**
+	 * События последнего шага в порядке поступления; i от 0 до getEventCount() - 1
+	 */
+	public static int getEventCount() {
+		return eventCount;
+	}
+
+	public static long getEventTime(int i) {
+		return eventTimes[i];
+	}
+
+	/**
+	 * @return InputQueue.KEY, BUTTON, CURSOR или SCROLL
+	 */
+	public static int getEventType(int i) {
+		return eventTypes[i];
+	}
+
+	/**
+	 * @return код клавиши или кнопки мыши
+	 */
+	public static int getEventCode(int i) {
+		return eventCodes[i];
+	}
+
+	/**
+	 * @return GLFW_PRESS, GLFW_RELEASE или GLFW_REPEAT
+	 */
+	public static int getEventAction(int i) {
+		return eventActions[i];
+	}
+
+	/**
+	 * @return положение курсора или смещение прокрутки
+	 */
+	public static double getEventX(int i) {
+		return eventXs[i];
+	}
+
+	public static double getEventY(int i) {
+		return eventYs[i];
+	}
+
+	/**
+	 * @return число событий, потерянных из-за переполнения очереди
+	 */
+	public static long getDroppedEvents() {
+		return queue.getDropped();
+	}
+
 	public GLFWKeyCallback getKeyboardCallback() {
 		return keyboard;
 	}
@@ -87,8 +275,8 @@ public class Input {
 	public GLFWMouseButtonCallback getMouseButtonsCallback() {
 		return mouseButtons;
 	}
-	
+
 	public GLFWScrollCallback getMouseScrollCallback() {
 		return mouseScroll;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+package main.java.engine.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кольцевой буфер событий ввода с одним производителем и одним потребителем, без блокировок.
+ *
+ * Производитель - колбэки GLFW в потоке окна (glfwPollEvents), потребитель - шаг симуляции, в каком бы потоке
+ * он ни шёл. Поля события лежат в параллельных примитивных массивах; tail двигает только производитель, head -
+ * только потребитель, и каждый публикует своё продвижение через lazySet после записи или чтения полей. При
+ * переполнении новое событие отбрасывается: колбэк окна не должен ждать симуляцию.
+ */
+public class InputQueue {
+	public static final int KEY = 0, BUTTON = 1, CURSOR = 2, SCROLL = 3;
+
+	private final int capacity, mask;
+	private final long[] times;
+	private final int[] types, codes, actions;
+	private final double[] xs, ys;
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+	private volatile long dropped;
+
+	/**
+	 * @param capacity ёмкость, степень двойки
+	 */
+	public InputQueue(int capacity) {
+		if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		times = new long[capacity];
+		types = new int[capacity];
+		codes = new int[capacity];
+		actions = new int[capacity];
+		xs = new double[capacity];
+		ys = new double[capacity];
+	}
+
+	/**
+	 * Добавляет событие; вызывается только производителем
+	 *
+	 * @return false, если буфер полон и событие отброшено
+	 */
+	public boolean push(long time, int type, int code, int action, double x, double y) {
+		long t = tail.get();
+		if (t - head.get() == capacity) {
+			dropped++;
+			return false;
+		}
+		int i = (int) t & mask;
+		times[i] = time;
+		types[i] = type;
+		codes[i] = code;
+		actions[i] = action;
+		xs[i] = x;
+		ys[i] = y;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Дальше - методы потребителя: просмотр первого события и переход к следующему
+	 */
+	public boolean hasNext() {
+		return head.get() < tail.get();
+	}
+
+	public long peekTime() {
+		return times[(int) head.get() & mask];
+	}
+
+	public int peekType() {
+		return types[(int) head.get() & mask];
+	}
+
+	public int peekCode() {
+		return codes[(int) head.get() & mask];
+	}
+
+	public int peekAction() {
+		return actions[(int) head.get() & mask];
+	}
+
+	public double peekX() {
+		return xs[(int) head.get() & mask];
+	}
+
+	public double peekY() {
+		return ys[(int) head.get() & mask];
+	}
+
+	/**
+	 * Освобождает первое событие для производителя
+	 */
+	public void advance() {
+		head.lazySet(head.get() + 1);
+	}
+
+	/**
+	 * @return число событий, отброшенных из-за переполнения
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+}
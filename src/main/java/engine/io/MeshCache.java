@@ -0,0 +1,149 @@
+package main.java.engine.io;
+
+import main.java.engine.graphics.Mesh;
+import main.java.engine.graphics.MeshData;
+import main.java.engine.graphics.Submesh;
+import main.java.engine.graphics.Texture;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Дисковый кэш импортированных моделей.
+ *
+ * Формат файла: заголовок (magic, version, vertexCount, indexCount, размер и время изменения исходника,
+ * границы AABB, тип индексов, число частей и материалов, радиус ограничивающей сферы, число уровней детализации),
+ * таблица частей (baseVertex, vertexCount, materialIndex и пара смещение/число индексов на уровень), затем блок вершин
+ * в формате Mesh.VERTEX_STRIDE и блок индексов в самом узком подходящем типе. Порядок байт - нативный,
+ * поэтому при попадании файл отображается в память и отдаётся в glNamedBufferData без разбора.
+ */
+public class MeshCache {
+	private static final String CACHE_DIRECTORY = "cache/meshes";
+	private static final int MAGIC = 0x4D534843; // "MSHC"
+	private static final int VERSION = 7;
+	private static final int HEADER_SIZE = 8 * Integer.BYTES + 2 * Long.BYTES + 7 * Float.BYTES;
+
+	public static Mesh load(String sourcePath, Texture texture) {
+		File source = new File(sourcePath);
+		File cacheFile = getCacheFile(source);
+		if (!cacheFile.isFile() || !source.isFile()) return null;
+
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) return null;
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return null;
+			int vertexCount = buffer.getInt(8);
+			int indexCount = buffer.getInt(12);
+			if (buffer.getLong(16) != source.length() || buffer.getLong(24) != source.lastModified()) return null;
+			Vector3f min = new Vector3f(buffer.getFloat(32), buffer.getFloat(36), buffer.getFloat(40));
+			Vector3f max = new Vector3f(buffer.getFloat(44), buffer.getFloat(48), buffer.getFloat(52));
+			int indexType = buffer.getInt(56);
+			int submeshCount = buffer.getInt(60);
+			int materialCount = buffer.getInt(64);
+			float radius = buffer.getFloat(68);
+			int lodCount = buffer.getInt(72);
+			if (lodCount < 1) return null;
+
+			int submeshSize = getSubmeshSize(lodCount);
+			int tableBytes = submeshCount * submeshSize;
+			int vertexBytes = vertexCount * Mesh.VERTEX_STRIDE;
+			int indexBytes = indexCount * Mesh.getIndexSize(indexType);
+			if (size != (long) HEADER_SIZE + tableBytes + vertexBytes + indexBytes) return null;
+
+			Submesh[] submeshes = new Submesh[submeshCount];
+			for (int i = 0, offset = HEADER_SIZE; i < submeshCount; i++, offset += submeshSize) {
+				int[] indexOffsets = new int[lodCount];
+				int[] indexCounts = new int[lodCount];
+				for (int lod = 0; lod < lodCount; lod++) {
+					indexOffsets[lod] = buffer.getInt(offset + 12 + lod * 8);
+					indexCounts[lod] = buffer.getInt(offset + 16 + lod * 8);
+				}
+				submeshes[i] = new Submesh(indexOffsets, indexCounts, buffer.getInt(offset), buffer.getInt(offset + 4),
+						buffer.getInt(offset + 8));
+			}
+
+			int vertexOffset = HEADER_SIZE + tableBytes;
+			return new Mesh(slice(buffer, vertexOffset, vertexBytes), slice(buffer, vertexOffset + vertexBytes, indexBytes),
+					vertexCount, indexCount, indexType, submeshes, materialCount, min, max, radius, texture);
+		} catch (IOException e) {
+			System.err.println("Couldn't read mesh cache " + cacheFile + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public static void store(String sourcePath, MeshData data) {
+		File source = new File(sourcePath);
+		File cacheFile = getCacheFile(source);
+		File directory = cacheFile.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Couldn't create mesh cache directory " + directory);
+			return;
+		}
+
+		int indexType = Mesh.getIndexType(data.getMaxSubmeshVertexCount());
+		Submesh[] submeshes = data.getSubmeshes();
+		int lodCount = data.getLodCount();
+		ByteBuffer buffer = MemoryUtil.memAlloc(HEADER_SIZE + submeshes.length * getSubmeshSize(lodCount)
+				+ data.getVertexCount() * Mesh.VERTEX_STRIDE + data.getIndexCount() * Mesh.getIndexSize(indexType));
+		File temp = new File(directory, cacheFile.getName() + ".tmp");
+		try {
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(data.getVertexCount()).putInt(data.getIndexCount());
+			buffer.putLong(source.length()).putLong(source.lastModified());
+			buffer.putFloat(data.getMin().x).putFloat(data.getMin().y).putFloat(data.getMin().z);
+			buffer.putFloat(data.getMax().x).putFloat(data.getMax().y).putFloat(data.getMax().z);
+			buffer.putInt(indexType).putInt(submeshes.length).putInt(data.getMaterialCount());
+			buffer.putFloat(data.getRadius()).putInt(lodCount);
+			for (Submesh submesh : submeshes) {
+				buffer.putInt(submesh.getBaseVertex()).putInt(submesh.getVertexCount()).putInt(submesh.getMaterialIndex());
+				for (int lod = 0; lod < lodCount; lod++) {
+					buffer.putInt(submesh.getIndexOffset(lod)).putInt(submesh.getIndexCount(lod));
+				}
+			}
+			data.putVertices(buffer);
+			Mesh.putIndices(data.getIndices(), indexType, buffer);
+			buffer.flip();
+
+			try (FileChannel channel = FileChannel.open(temp.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buffer.hasRemaining()) channel.write(buffer);
+			}
+			Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Couldn't write mesh cache " + cacheFile + ": " + e.getMessage());
+			temp.delete();
+		} finally {
+			MemoryUtil.memFree(buffer);
+		}
+	}
+
+	private static int getSubmeshSize(int lodCount) {
+		return (3 + 2 * lodCount) * Integer.BYTES;
+	}
+
+	private static File getCacheFile(File source) {
+		String key = UUID.nameUUIDFromBytes(source.getAbsolutePath().getBytes(StandardCharsets.UTF_8)).toString();
+		return new File(CACHE_DIRECTORY, key + ".mesh");
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+}
@@ -1,60 +1,181 @@
 package main.java.engine.io;
 
+import main.java.engine.graphics.MeshData;
+import main.java.engine.graphics.MeshOptimizer;
+import main.java.engine.graphics.MeshSimplifier;
+import main.java.engine.graphics.Submesh;
 import main.java.engine.graphics.Texture;
 import main.java.engine.graphics.Mesh;
-import main.java.engine.graphics.Vertex;
-import org.joml.Vector2f;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
 import org.lwjgl.assimp.*;
+import org.lwjgl.system.MemoryUtil;
 
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ModelLoader {
-    public static Mesh loadModel(String filePath, String texturePath) {
-        AIScene scene = Assimp.aiImportFile(filePath, Assimp.aiProcess_JoinIdenticalVertices | Assimp.aiProcess_Triangulate);
+    /**
+     * Импортирует все меши модели; файлы читаются через VirtualFileSystem. Меш, на который ссылаются несколько
+     * узлов, импортируется по разу на каждый узел. Все части упаковываются в общий буфер вершин и индексов.
+     *
+     * Трансформации узлов запекаются в вершины относительно узла первого меша. Поэтому первый меш остаётся
+     * в своих координатах, как при прежнем импорте одного mMeshes[0]: положение, поворот и масштаб,
+     * подобранные для моделей из одного меша, не меняются. Остальные части встают относительно первой так,
+     * как они расположены в файле.
+     */
+    public static Mesh loadModel(String filePath, Texture texture) {
+        Mesh cached = MeshCache.load(filePath, texture);
+        if (cached != null) return cached;
 
-        if (scene == null) System.err.println("Couldn't load model at " + filePath);
+        AIScene scene = Assimp.aiImportFileEx(filePath, Assimp.aiProcess_JoinIdenticalVertices | Assimp.aiProcess_Triangulate,
+                AssimpFileIO.get());
 
-        assert scene != null;
-        AIMesh mesh = AIMesh.create(Objects.requireNonNull(scene.mMeshes()).get(0));
-        int vertexCount = mesh.mNumVertices();
+        if (scene == null) {
+            System.err.println("Couldn't load model at " + filePath + ": " + Assimp.aiGetErrorString());
+            throw new IllegalStateException("Couldn't load model at " + filePath);
+        }
+
+        int meshCount = scene.mNumMeshes();
+        PointerBuffer meshes = scene.mMeshes();
+        AIMesh[] sceneMeshes = new AIMesh[meshCount];
+        for (int m = 0; m < meshCount; m++) sceneMeshes[m] = AIMesh.create(meshes.get(m));
+
+        List<Integer> instanceMeshes = new ArrayList<>();
+        List<Matrix4f> instanceTransforms = new ArrayList<>();
+        if (scene.mRootNode() != null) {
+            collectInstances(scene.mRootNode(), new Matrix4f(), instanceMeshes, instanceTransforms);
+        }
+        if (instanceMeshes.isEmpty()) {
+            // без иерархии узлов меши берутся как есть
+            for (int m = 0; m < meshCount; m++) {
+                instanceMeshes.add(m);
+                instanceTransforms.add(new Matrix4f());
+            }
+        }
+        int instanceCount = instanceMeshes.size();
+        if (instanceCount == 0) {
+            Assimp.aiReleaseImport(scene);
+            System.err.println("Model at " + filePath + " has no meshes");
+            throw new IllegalStateException("Model at " + filePath + " has no meshes");
+        }
 
-        AIVector3D.Buffer vertices = mesh.mVertices();
-        AIVector3D.Buffer normals = mesh.mNormals();
+        int reference = Math.max(instanceMeshes.indexOf(0), 0);
+        Matrix4f toReference = instanceTransforms.get(reference).invert(new Matrix4f());
+
+        int vertexTotal = 0, indexTotal = 0;
+        for (int i = 0; i < instanceCount; i++) {
+            AIMesh mesh = sceneMeshes[instanceMeshes.get(i)];
+            vertexTotal += mesh.mNumVertices();
+            indexTotal += countTriangles(mesh) * 3;
+        }
 
-        Vertex[] vertexList = new Vertex[vertexCount];
+        float[] positions = new float[vertexTotal * 3];
+        float[] normals = new float[vertexTotal * 3];
+        float[] textureCoords = new float[vertexTotal * 2];
+        int[] indicesList = new int[indexTotal];
+        Submesh[] submeshes = new Submesh[instanceCount];
 
-        for (int i = 0; i < vertexCount; i++) {
-            AIVector3D vertex = vertices.get(i);
-            Vector3f meshVertex = new Vector3f(vertex.x(), vertex.y(), vertex.z());
+        Matrix3f normalMatrix = new Matrix3f();
+        Vector3f vector = new Vector3f();
+        int baseVertex = 0, indexOffset = 0;
+        for (int n = 0; n < instanceCount; n++) {
+            AIMesh mesh = sceneMeshes[instanceMeshes.get(n)];
+            int vertexCount = mesh.mNumVertices();
 
-            assert normals != null;
-            AIVector3D normal = normals.get(i);
-            Vector3f meshNormal = new Vector3f(normal.x(), normal.y(), normal.z());
+            // AIVector3D - это три подряд идущих float, поэтому данные копируются целиком, без объектов на вершину
+            MemoryUtil.memFloatBuffer(mesh.mVertices().address(), vertexCount * 3).get(positions, baseVertex * 3, vertexCount * 3);
 
+            AIVector3D.Buffer normalBuffer = mesh.mNormals();
+            if (normalBuffer != null) {
+                MemoryUtil.memFloatBuffer(normalBuffer.address(), vertexCount * 3).get(normals, baseVertex * 3, vertexCount * 3);
+            }
 
-            Vector2f meshTextureCoord = new Vector2f(0, 0);
-            AIVector3D.Buffer textCoords = mesh.mTextureCoords(0);
+            // узел первого меша переводится сам в себя, его вершины копируются без пересчёта
+            if (n != reference) {
+                Matrix4f transform = toReference.mul(instanceTransforms.get(n), new Matrix4f());
+                normalMatrix.set(transform).invert().transpose();
+                for (int i = baseVertex * 3; i < (baseVertex + vertexCount) * 3; i += 3) {
+                    transform.transformPosition(positions[i], positions[i + 1], positions[i + 2], vector);
+                    positions[i] = vector.x;
+                    positions[i + 1] = vector.y;
+                    positions[i + 2] = vector.z;
+                    if (normalBuffer == null) continue;
+                    normalMatrix.transform(vector.set(normals[i], normals[i + 1], normals[i + 2])).normalize();
+                    normals[i] = vector.x;
+                    normals[i + 1] = vector.y;
+                    normals[i + 2] = vector.z;
+                }
+            }
 
-                AIVector3D texture = Objects.requireNonNull(mesh.mTextureCoords(0)).get(i);
-                meshTextureCoord.x = texture.x();
-                meshTextureCoord.y = 1 - texture.y();
+            AIVector3D.Buffer textureBuffer = mesh.mTextureCoords(0);
+            if (textureBuffer != null) {
+                FloatBuffer coords = MemoryUtil.memFloatBuffer(textureBuffer.address(), vertexCount * 3);
+                for (int i = 0; i < vertexCount; i++) {
+                    textureCoords[(baseVertex + i) * 2] = coords.get(i * 3);
+                    textureCoords[(baseVertex + i) * 2 + 1] = 1 - coords.get(i * 3 + 1);
+                }
+            }
 
-            vertexList[i] = new Vertex(meshVertex, meshNormal, meshTextureCoord);
+            int faceCount = mesh.mNumFaces();
+            AIFace.Buffer faces = mesh.mFaces();
+            int index = indexOffset;
+            for (int i = 0; i < faceCount; i++) {
+                AIFace face = faces.get(i);
+                if (face.mNumIndices() != 3) continue;
+                IntBuffer faceIndices = face.mIndices();
+                indicesList[index++] = faceIndices.get(0);
+                indicesList[index++] = faceIndices.get(1);
+                indicesList[index++] = faceIndices.get(2);
+            }
+
+            submeshes[n] = new Submesh(indexOffset, index - indexOffset, baseVertex, vertexCount, mesh.mMaterialIndex());
+            baseVertex += vertexCount;
+            indexOffset = index;
         }
+        int materialCount = Math.max(scene.mNumMaterials(), 1);
+        Assimp.aiReleaseImport(scene);
+
+        MeshData data = MeshOptimizer.optimize(
+                new MeshData(positions, normals, textureCoords, indicesList, submeshes, materialCount), filePath);
+        data = MeshSimplifier.generateLods(data, filePath);
+        MeshCache.store(filePath, data);
+        return new Mesh(data, texture);
+    }
+
+    /**
+     * Обходит узлы и собирает ссылки на меши вместе с трансформацией узла относительно корня
+     */
+    private static void collectInstances(AINode node, Matrix4f parent, List<Integer> meshes, List<Matrix4f> transforms) {
+        AIMatrix4x4 m = node.mTransformation();
+        // AIMatrix4x4 хранится по строкам, Matrix4f принимает значения по столбцам
+        Matrix4f transform = parent.mul(new Matrix4f(
+                m.a1(), m.b1(), m.c1(), m.d1(),
+                m.a2(), m.b2(), m.c2(), m.d2(),
+                m.a3(), m.b3(), m.c3(), m.d3(),
+                m.a4(), m.b4(), m.c4(), m.d4()), new Matrix4f());
 
-        int faceCount = mesh.mNumFaces();
-        AIFace.Buffer indices = mesh.mFaces();
-        int[] indicesList = new int[faceCount * 3];
+        IntBuffer nodeMeshes = node.mMeshes();
+        for (int i = 0; i < node.mNumMeshes(); i++) {
+            meshes.add(nodeMeshes.get(i));
+            transforms.add(transform);
+        }
+        PointerBuffer children = node.mChildren();
+        for (int i = 0; i < node.mNumChildren(); i++) {
+            collectInstances(AINode.create(children.get(i)), transform, meshes, transforms);
+        }
+    }
 
-        for (int i = 0; i < faceCount; i++) {
-            AIFace face = indices.get(i);
-            IntBuffer buffer = face.mIndices();
-            indicesList[i * 3 + 0] = face.mIndices().get(0);
-            indicesList[i * 3 + 1] = face.mIndices().get(1);
-            indicesList[i * 3 + 2] = face.mIndices().get(2);
+    private static int countTriangles(AIMesh mesh) {
+        int count = 0;
+        AIFace.Buffer faces = mesh.mFaces();
+        for (int i = 0; i < mesh.mNumFaces(); i++) {
+            if (faces.get(i).mNumIndices() == 3) count++;
         }
-        return new Mesh(vertexList, indicesList, new Texture(texturePath));
+        return count;
     }
 }
@@ -0,0 +1,130 @@
+package main.java.engine.io;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+/**
+ * Дисковый кэш скомпонованных программ (glGetProgramBinary).
+ *
+ * Ключ - SHA-1 исходников шейдеров и строк GL_VENDOR, GL_RENDERER и GL_VERSION: бинарник годится только
+ * для того драйвера, который его собрал, и после обновления драйвера кэш сам промахивается. Формат файла:
+ * magic, version, формат бинарника, длина, затем сам бинарник. Если драйвер всё же отклонит бинарник,
+ * load() возвращает false и программа собирается из исходников.
+ */
+public class ProgramCache {
+	private static final String CACHE_DIRECTORY = "cache/programs";
+	private static final int MAGIC = 0x47525043; // "CPRG"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+	/**
+	 * Вызывается с текущим контекстом OpenGL
+	 */
+	public static String getKey(String... sources) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (String source : sources) {
+				digest.update(source.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			for (int name : new int[] {GL_VENDOR, GL_RENDERER, GL_VERSION}) {
+				String value = glGetString(name);
+				digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) key.append(String.format("%02x", b));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	/**
+	 * Загружает бинарник в программу
+	 *
+	 * @return true, если программа скомпонована и готова к использованию
+	 */
+	public static boolean load(String key, int programID) {
+		if (glGetInteger(GL_NUM_PROGRAM_BINARY_FORMATS) == 0) return false;
+		File cacheFile = getCacheFile(key);
+		if (!cacheFile.isFile()) return false;
+
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) return false;
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.nativeOrder());
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return false;
+			int binaryFormat = buffer.getInt(8);
+			int length = buffer.getInt(12);
+			if (size != (long) HEADER_SIZE + length) return false;
+
+			buffer.position(HEADER_SIZE);
+			glProgramBinary(programID, binaryFormat, buffer.slice());
+			return glGetProgrami(programID, GL_LINK_STATUS) == GL_TRUE;
+		} catch (IOException e) {
+			System.err.println("Couldn't read program cache " + cacheFile + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Сохраняет бинарник скомпонованной программы
+	 */
+	public static void store(String key, int programID) {
+		int length = glGetProgrami(programID, GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0) return;
+
+		File cacheFile = getCacheFile(key);
+		File directory = cacheFile.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Couldn't create program cache directory " + directory);
+			return;
+		}
+
+		ByteBuffer buffer = MemoryUtil.memAlloc(HEADER_SIZE + length);
+		File temp = new File(directory, cacheFile.getName() + ".tmp");
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer written = stack.mallocInt(1);
+			IntBuffer binaryFormat = stack.mallocInt(1);
+			buffer.position(HEADER_SIZE);
+			glGetProgramBinary(programID, written, binaryFormat, buffer);
+			buffer.position(0);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(binaryFormat.get(0)).putInt(written.get(0));
+			buffer.position(0).limit(HEADER_SIZE + written.get(0));
+
+			try (FileChannel channel = FileChannel.open(temp.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buffer.hasRemaining()) channel.write(buffer);
+			}
+			Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Couldn't write program cache " + cacheFile + ": " + e.getMessage());
+			temp.delete();
+		} finally {
+			MemoryUtil.memFree(buffer);
+		}
+	}
+
+	private static File getCacheFile(String key) {
+		return new File(CACHE_DIRECTORY, key + ".prog");
+	}
+}
@@ -0,0 +1,151 @@
+package main.java.engine.io;
+
+import main.java.engine.graphics.CompressedImage;
+import main.java.engine.graphics.TextureCompressor;
+import main.java.engine.utils.Resource;
+import main.java.engine.utils.VirtualFileSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.lwjgl.stb.STBImage.stbi_failure_reason;
+import static org.lwjgl.stb.STBImage.stbi_image_free;
+import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
+
+/**
+ * Дисковый кэш текстур, сжатых в BCn.
+ *
+ * Ключ - SHA-1 содержимого исходного изображения и запрошенный формат, поэтому кэш переживает переименование
+ * и перемещение файлов и сам обновляется при изменении картинки. Формат файла: заголовок (magic, version,
+ * GL-формат, ширина, высота, число уровней), затем блоки всех mip-уровней подряд. При попадании файл
+ * отображается в память и уровни отдаются в glCompressedTextureSubImage2D без копирования.
+ *
+ * Кэш можно заполнить заранее, без окна и контекста OpenGL: main с путями к изображениям.
+ */
+public class TextureCache {
+	private static final String CACHE_DIRECTORY = "cache/textures";
+	private static final int MAGIC = 0x58455443; // "CTEX"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 6 * Integer.BYTES;
+
+	/**
+	 * @param format запрошенный формат или null для автоматического выбора
+	 */
+	public static String getKey(ByteBuffer source, TextureCompressor.Format format) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(source.duplicate());
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) key.append(String.format("%02x", b));
+			return key.append(format == null ? "" : "-" + format.name().toLowerCase()).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 is not available", e);
+		}
+	}
+
+	public static CompressedImage load(String key) {
+		File cacheFile = getCacheFile(key);
+		if (!cacheFile.isFile()) return null;
+
+		try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE) return null;
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return null;
+			TextureCompressor.Format format = TextureCompressor.Format.fromGLFormat(buffer.getInt(8));
+			int width = buffer.getInt(12);
+			int height = buffer.getInt(16);
+			int levels = buffer.getInt(20);
+			if (format == null || width < 1 || height < 1 || levels != CompressedImage.getLevelCount(width, height)) return null;
+			if (size != (long) HEADER_SIZE + CompressedImage.getDataSize(format, width, height, levels)) return null;
+
+			buffer.position(HEADER_SIZE);
+			return new CompressedImage(format, width, height, levels, buffer.slice(), false);
+		} catch (IOException e) {
+			System.err.println("Couldn't read texture cache " + cacheFile + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public static void store(String key, CompressedImage image) {
+		File cacheFile = getCacheFile(key);
+		File directory = cacheFile.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("Couldn't create texture cache directory " + directory);
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(image.getFormat().getGLFormat())
+				.putInt(image.getWidth()).putInt(image.getHeight()).putInt(image.getLevels());
+		header.flip();
+		ByteBuffer data = image.getData().duplicate();
+		File temp = new File(directory, cacheFile.getName() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (header.hasRemaining()) channel.write(header);
+				while (data.hasRemaining()) channel.write(data);
+			}
+			Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			System.err.println("Couldn't write texture cache " + cacheFile + ": " + e.getMessage());
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Возвращает сжатое изображение из кэша, а при промахе декодирует исходник, сжимает его и сохраняет в кэш
+	 */
+	public static CompressedImage loadOrCompress(String path, TextureCompressor.Format format) throws IOException {
+		int[] width = new int[1], height = new int[1], channels = new int[1];
+		String key;
+		ByteBuffer pixels;
+		try (Resource source = VirtualFileSystem.open(path)) {
+			key = getKey(source.getData(), format);
+			CompressedImage cached = load(key);
+			if (cached != null) return cached;
+
+			pixels = stbi_load_from_memory(source.getData(), width, height, channels, 0);
+			if (pixels == null) throw new IOException("Couldn't decode texture " + path + ": " + stbi_failure_reason());
+		}
+		CompressedImage image;
+		try {
+			image = TextureCompressor.compress(pixels, width[0], height[0], channels[0], format);
+		} finally {
+			stbi_image_free(pixels);
+		}
+		store(key, image);
+		return image;
+	}
+
+	private static File getCacheFile(String key) {
+		return new File(CACHE_DIRECTORY, key + ".ctex");
+	}
+
+	/**
+	 * Заполняет кэш для перечисленных изображений
+	 */
+	public static void main(String[] args) {
+		for (String path : args) {
+			try {
+				loadOrCompress(path, null).free();
+				System.out.println("Compressed " + path);
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+}
@@ -8,20 +8,29 @@ import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 
 import main.java.engine.maths.Vector3f;
+import main.java.engine.utils.Profiler;
+
+import java.util.Locale;
 
 import static org.lwjgl.opengl.GL11.glFogfv;
 
 public class Window {
+	public static final float FOV = 70.0f;
+	public static final float NEAR_PLANE = 0.1f;
+	public static final float FAR_PLANE = 1000.0f;
+
 	private int width, height;
 	private String title;
 	private long window;
 	private int frames;
+	private int drawCalls, stateChanges, visibleObjects, culledObjects;
 	private static long time;
 	private Input input;
 	private Vector3f background = new Vector3f(0, 0, 0);
 	private GLFWWindowSizeCallback sizeCallback;
 	private boolean isResized;
 	private boolean isFullscreen;
+	private boolean vSync = true;
 	private int[] windowPosX = new int[1], windowPosY = new int[1];
 	public Matrix4f projection;
 	
@@ -29,7 +38,7 @@ public class Window {
 		this.width = width;
 		this.height = height;
 		this.title = title;
-		projection = new Matrix4f().perspective(70.0f, (float) width / (float) height, 0.1f, 1000.0f);
+		projection = new Matrix4f().perspective(FOV, (float) width / (float) height, NEAR_PLANE, FAR_PLANE);
 	}
 	
 	public void create() {
@@ -59,9 +68,9 @@ public class Window {
 
 		GLFW.glfwShowWindow(window);
 		
-		GLFW.glfwSwapInterval(1);
+		GLFW.glfwSwapInterval(vSync ? 1 : 0);
 		
-		time = System.currentTimeMillis();
+		time = System.nanoTime();
 	}
 
 	// функции колбеки
@@ -90,13 +99,25 @@ public class Window {
 		GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
 		GLFW.glfwPollEvents();
 		frames++;
-		if (System.currentTimeMillis() > time + 1000) {
-			GLFW.glfwSetWindowTitle(window, title + " | FPS: " + frames);
-			time = System.currentTimeMillis();
+		if (System.nanoTime() - time > 1_000_000_000L) {
+			GLFW.glfwSetWindowTitle(window, title + " | FPS: " + frames
+					+ String.format(Locale.ROOT, " | CPU %.2f ms, GPU %.2f ms",
+							Profiler.getCpuTime(Profiler.FRAME, 50), Profiler.getGpuTime(Profiler.FRAME, 50))
+					+ " | Draws: " + drawCalls
+					+ " | State changes: " + stateChanges
+					+ " | Objects: " + visibleObjects + " drawn, " + culledObjects + " culled");
+			time = System.nanoTime();
 			frames = 0;
 		}
 	}
 	
+	/**
+	 * Вертикальная синхронизация; задаётся до create(). Скорость симуляции от неё не зависит
+	 */
+	public void setVSync(boolean vSync) {
+		this.vSync = vSync;
+	}
+
 	public void swapBuffers() {
 		GLFW.glfwSwapBuffers(window);
 	}
@@ -113,6 +134,17 @@ public class Window {
 		GLFW.glfwTerminate();
 	}
 	
+	/**
+	 * Статистика отрисовки последнего кадра, выводится в заголовок вместе с FPS и медианами времени
+	 * кадра на процессоре и GPU из Profiler
+	 */
+	public void setRenderStats(int drawCalls, int stateChanges, int visibleObjects, int culledObjects) {
+		this.drawCalls = drawCalls;
+		this.stateChanges = stateChanges;
+		this.visibleObjects = visibleObjects;
+		this.culledObjects = culledObjects;
+	}
+
 	public void setBackgroundColor(float r, float g, float b) {
 		background.set(r, g, b);
 	}
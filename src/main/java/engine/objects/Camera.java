@@ -8,21 +8,40 @@ import org.lwjgl.glfw.GLFW;
 
 public class Camera {
     private Vector3f position, rotation;
+    private final Vector3f previousPosition = new Vector3f(), previousRotation = new Vector3f();
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final Vector3f viewPosition = new Vector3f(Float.NaN), viewRotation = new Vector3f();
     private float mouseSensitivity = 0.007f;
     private float distance = 2.0f;
     private float horizontalAngle = 0;
     private float verticalAngle = 0;
-    private double oldMouseX = 0, oldMouseY = 0, newMouseX, newMouseY;
 
     public Camera(Vector3f position, Vector3f rotation) {
         this.position = position;
         this.rotation = rotation;
+        storePreviousState();
     }
 
-    public void update() {
-        newMouseX = Input.getMouseX();
-        newMouseY = Input.getMouseY();
+    /**
+     * Запоминает текущее положение как предыдущее; вызывается в начале каждого шага симуляции
+     */
+    public void storePreviousState() {
+        previousPosition.set(position);
+        previousRotation.set(rotation);
+    }
+
+    /**
+     * Записывает в dest положение камеры между предыдущим и текущим шагом симуляции
+     *
+     * @param alpha 0 - предыдущий шаг, 1 - текущий
+     */
+    public Camera interpolate(float alpha, Camera dest) {
+        dest.position.set(previousPosition).lerp(position, alpha);
+        dest.rotation.set(previousRotation).lerp(rotation, alpha);
+        return dest;
+    }
 
+    public void update() {
         float moveSpeed = 2f;
         float x = (float) Math.sin(Math.toRadians(rotation.y)) * moveSpeed;
         float z = (float) Math.cos(Math.toRadians(rotation.y)) * moveSpeed;
@@ -34,21 +53,15 @@ public class Camera {
         if (Input.isKeyDown(GLFW.GLFW_KEY_SPACE)) position = position.add(0, moveSpeed, 0);
         if (Input.isKeyDown(GLFW.GLFW_KEY_LEFT_SHIFT)) position = position.add(0, -moveSpeed, 0);
 
-        float dx = (float) (newMouseX - oldMouseX);
-        float dy = (float) (newMouseY - oldMouseY);
-
-        rotation = rotation.add( new Vector3f(-dy * mouseSensitivity, -dx * mouseSensitivity, 0));
+        float dx = (float) Input.getMouseDeltaX();
+        float dy = (float) Input.getMouseDeltaY();
 
-        oldMouseX = newMouseX;
-        oldMouseY = newMouseY;
+        rotation = rotation.add(-dy * mouseSensitivity, -dx * mouseSensitivity, 0);
     }
 
     public void update(GameObject object) {
-        newMouseX = Input.getMouseX();
-        newMouseY = Input.getMouseY();
-
-        float dx = (float) (newMouseX - oldMouseX);
-        float dy = (float) (newMouseY - oldMouseY);
+        float dx = (float) Input.getMouseDeltaX();
+        float dy = (float) Input.getMouseDeltaY();
 
         if (Input.isButtonDown(GLFW.GLFW_MOUSE_BUTTON_LEFT)) {
             verticalAngle -= dy * mouseSensitivity;
@@ -71,25 +84,22 @@ public class Camera {
         position.set(object.getPosition().x + xOffset, object.getPosition().y - verticalDistance, object.getPosition().z + zOffset);
 
         rotation.set(verticalAngle, -horizontalAngle, 0);
-
-        oldMouseX = newMouseX;
-        oldMouseY = newMouseY;
     }
 
-    public Matrix4f view(Vector3f position, Vector3f rotation){
-        Matrix4f result;
-
-        Vector3f negative = new Vector3f(-position.x, -position.y, -position.z);
-        Matrix4f translationMatrix = new Matrix4f().translate(negative);
-        Matrix4f rotXMatrix = new Matrix4f().rotate(rotation.x, new Vector3f(1, 0, 0));
-        Matrix4f rotYMatrix = new Matrix4f().rotate(rotation.y, new Vector3f(0, 1, 0));
-        Matrix4f rotZMatrix = new Matrix4f().rotate(rotation.z, new Vector3f(0, 0, 1));
-
-        Matrix4f rotationMatrix = rotYMatrix.mul(rotZMatrix.mul(rotXMatrix));
-
-        result = translationMatrix.mul(rotationMatrix);
-
-        return result;
+    /**
+     * Матрица вида: перенос на -position и поворот rotation. Пересчитывается, только если камера сдвинулась
+     * с прошлого вызова; возвращается один и тот же объект, менять его нельзя.
+     */
+    public Matrix4f getViewMatrix() {
+        if (!position.equals(viewPosition) || !rotation.equals(viewRotation)) {
+            viewMatrix.translation(-position.x, -position.y, -position.z)
+                    .rotateY(rotation.y)
+                    .rotateZ(rotation.z)
+                    .rotateX(rotation.x);
+            viewPosition.set(position);
+            viewRotation.set(rotation);
+        }
+        return viewMatrix;
     }
 
     public Vector3f getPosition() {
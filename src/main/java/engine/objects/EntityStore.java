@@ -0,0 +1,230 @@
+package main.java.engine.objects;
+
+import main.java.engine.graphics.Mesh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Хранилище сущностей в виде структуры массивов: каждый компонент - свой плотный примитивный массив,
+ * сущность - номер строки в них. Системы из EntitySystems проходят массивы подряд и делят их на куски между
+ * потоками, поэтому сотни тысяч сущностей обрабатываются без объектов на каждую и без промахов по ссылкам.
+ *
+ * Компоненты (по 3 float на сущность, если не сказано иное): положение, поворот, масштаб, их значения на
+ * предыдущем шаге симуляции, скорость и угловая скорость в единицах за секунду, номер меша, уровень
+ * детализации, мировая матрица (16 float), ограничивающая сфера (FrustumCuller.SPHERE_FLOATS) и видимость.
+ *
+ * Снаружи сущность обозначается номером, который не меняется: при удалении на её строку переносится
+ * последняя, а таблица номеров обновляется.
+ */
+public class EntityStore {
+    static final int VECTOR_FLOATS = 3;
+    static final int MATRIX_FLOATS = 16;
+    static final int SPHERE_FLOATS = 4;
+
+    int count;
+    float[] positions, rotations, scales;
+    float[] previousPositions, previousRotations, previousScales;
+    float[] velocities, angularVelocities;
+    int[] meshes, lods;
+    float[] worldMatrices, spheres;
+    boolean[] visible;
+    /**
+     * Центр и радиус ограничивающей сферы каждого меша таблицы, чтобы система преобразований
+     * не обращалась к объектам Mesh
+     */
+    float[] meshBounds = new float[8 * SPHERE_FLOATS];
+    private final List<Mesh> meshTable = new ArrayList<>();
+
+    private int[] entities, rows;
+    private int entityCount;
+    private int[] freeEntities = new int[16];
+    private int freeCount;
+
+    public EntityStore() {
+        this(1024);
+    }
+
+    public EntityStore(int capacity) {
+        allocate(Math.max(capacity, 16));
+        rows = new int[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Создаёт сущность в начале координат с единичным масштабом
+     *
+     * @return номер сущности
+     */
+    public int create(Mesh mesh) {
+        if (count == entities.length) allocate(count * 2);
+        int entity = freeCount > 0 ? freeEntities[--freeCount] : entityCount++;
+        if (entity == rows.length) rows = Arrays.copyOf(rows, entity * 2);
+
+        int row = count++;
+        rows[entity] = row;
+        entities[row] = entity;
+        int v = row * VECTOR_FLOATS;
+        for (int i = v; i < v + VECTOR_FLOATS; i++) {
+            positions[i] = previousPositions[i] = 0;
+            rotations[i] = previousRotations[i] = 0;
+            scales[i] = previousScales[i] = 1;
+            velocities[i] = angularVelocities[i] = 0;
+        }
+        meshes[row] = getMeshHandle(mesh);
+        lods[row] = 0;
+        visible[row] = false;
+        return entity;
+    }
+
+    /**
+     * Удаляет сущность, перенося на её строку последнюю
+     */
+    public void destroy(int entity) {
+        int row = rows[entity], last = --count;
+        if (row != last) {
+            copyVector(positions, last, row);
+            copyVector(rotations, last, row);
+            copyVector(scales, last, row);
+            copyVector(previousPositions, last, row);
+            copyVector(previousRotations, last, row);
+            copyVector(previousScales, last, row);
+            copyVector(velocities, last, row);
+            copyVector(angularVelocities, last, row);
+            System.arraycopy(worldMatrices, last * MATRIX_FLOATS, worldMatrices, row * MATRIX_FLOATS, MATRIX_FLOATS);
+            System.arraycopy(spheres, last * SPHERE_FLOATS, spheres, row * SPHERE_FLOATS, SPHERE_FLOATS);
+            meshes[row] = meshes[last];
+            lods[row] = lods[last];
+            visible[row] = visible[last];
+            entities[row] = entities[last];
+            rows[entities[row]] = row;
+        }
+        if (freeCount == freeEntities.length) freeEntities = Arrays.copyOf(freeEntities, freeCount * 2);
+        freeEntities[freeCount++] = entity;
+    }
+
+    /**
+     * Ставит сущность в точку без интерполяции от прежнего положения
+     */
+    public void setPosition(int entity, float x, float y, float z) {
+        int v = rows[entity] * VECTOR_FLOATS;
+        setVector(positions, v, x, y, z);
+        setVector(previousPositions, v, x, y, z);
+    }
+
+    public void setRotation(int entity, float x, float y, float z) {
+        int v = rows[entity] * VECTOR_FLOATS;
+        setVector(rotations, v, x, y, z);
+        setVector(previousRotations, v, x, y, z);
+    }
+
+    public void setScale(int entity, float x, float y, float z) {
+        int v = rows[entity] * VECTOR_FLOATS;
+        setVector(scales, v, x, y, z);
+        setVector(previousScales, v, x, y, z);
+    }
+
+    /**
+     * @param x y z скорость в единицах за секунду
+     */
+    public void setVelocity(int entity, float x, float y, float z) {
+        setVector(velocities, rows[entity] * VECTOR_FLOATS, x, y, z);
+    }
+
+    /**
+     * @param x y z скорость поворота вокруг осей в радианах за секунду
+     */
+    public void setAngularVelocity(int entity, float x, float y, float z) {
+        setVector(angularVelocities, rows[entity] * VECTOR_FLOATS, x, y, z);
+    }
+
+    /**
+     * @return строка сущности; строки всех сущностей - отрезок [0, size())
+     */
+    public int getRow(int entity) {
+        return rows[entity];
+    }
+
+    public int getEntity(int row) {
+        return entities[row];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Mesh getMesh(int row) {
+        return meshTable.get(meshes[row]);
+    }
+
+    public int getLod(int row) {
+        return lods[row];
+    }
+
+    public void setLod(int row, int lod) {
+        lods[row] = lod;
+    }
+
+    public boolean isVisible(int row) {
+        return visible[row];
+    }
+
+    /**
+     * Мировые матрицы всех строк подряд по столбцам, по 16 float; матрица строки row начинается с row * 16
+     */
+    public float[] getWorldMatrices() {
+        return worldMatrices;
+    }
+
+    /**
+     * Ограничивающие сферы всех строк: x, y, z, радиус
+     */
+    public float[] getSpheres() {
+        return spheres;
+    }
+
+    private int getMeshHandle(Mesh mesh) {
+        int handle = meshTable.indexOf(mesh);
+        if (handle >= 0) return handle;
+        handle = meshTable.size();
+        meshTable.add(mesh);
+        if ((handle + 1) * SPHERE_FLOATS > meshBounds.length) meshBounds = Arrays.copyOf(meshBounds, meshBounds.length * 2);
+        int s = handle * SPHERE_FLOATS;
+        meshBounds[s] = mesh.getCenter().x;
+        meshBounds[s + 1] = mesh.getCenter().y;
+        meshBounds[s + 2] = mesh.getCenter().z;
+        meshBounds[s + 3] = mesh.getRadius();
+        return handle;
+    }
+
+    private void allocate(int capacity) {
+        positions = grow(positions, capacity * VECTOR_FLOATS);
+        rotations = grow(rotations, capacity * VECTOR_FLOATS);
+        scales = grow(scales, capacity * VECTOR_FLOATS);
+        previousPositions = grow(previousPositions, capacity * VECTOR_FLOATS);
+        previousRotations = grow(previousRotations, capacity * VECTOR_FLOATS);
+        previousScales = grow(previousScales, capacity * VECTOR_FLOATS);
+        velocities = grow(velocities, capacity * VECTOR_FLOATS);
+        angularVelocities = grow(angularVelocities, capacity * VECTOR_FLOATS);
+        worldMatrices = grow(worldMatrices, capacity * MATRIX_FLOATS);
+        spheres = grow(spheres, capacity * SPHERE_FLOATS);
+        meshes = meshes == null ? new int[capacity] : Arrays.copyOf(meshes, capacity);
+        lods = lods == null ? new int[capacity] : Arrays.copyOf(lods, capacity);
+        visible = visible == null ? new boolean[capacity] : Arrays.copyOf(visible, capacity);
+        entities = entities == null ? new int[capacity] : Arrays.copyOf(entities, capacity);
+    }
+
+    private static float[] grow(float[] array, int length) {
+        return array == null ? new float[length] : Arrays.copyOf(array, length);
+    }
+
+    private static void copyVector(float[] array, int from, int to) {
+        System.arraycopy(array, from * VECTOR_FLOATS, array, to * VECTOR_FLOATS, VECTOR_FLOATS);
+    }
+
+    private static void setVector(float[] array, int offset, float x, float y, float z) {
+        array[offset] = x;
+        array[offset + 1] = y;
+        array[offset + 2] = z;
+    }
+}
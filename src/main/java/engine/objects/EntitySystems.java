@@ -0,0 +1,206 @@
+package main.java.engine.objects;
+
+import main.java.engine.graphics.FrustumCuller;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Системы над EntityStore. Каждая система проходит плотные массивы компонентов по строкам и не трогает
+ * чужие строки, поэтому строки делятся на куски по CHUNK_SIZE и обрабатываются параллельно в общем
+ * ForkJoinPool; маленькие хранилища обрабатываются в вызывающем потоке без создания задач.
+ *
+ * Обработчики кусков систем и их задачи создаются один раз и переиспользуются, параметры вызова передаются
+ * через поля обработчика, поэтому системы не выделяют память за кадр. Каждая система вызывается
+ * из одного потока за раз: move - шагом симуляции, buildTransforms и cull - отрисовкой.
+ */
+public class EntitySystems {
+    /** число строк, которые одна задача обрабатывает целиком */
+    public static final int CHUNK_SIZE = 4096;
+
+    private static final Move MOVE = new Move();
+    private static final BuildTransforms BUILD_TRANSFORMS = new BuildTransforms();
+    private static final Cull CULL = new Cull();
+
+    /**
+     * Обработка строк [start, end). Задачи кусков хранятся в обработчике, поэтому один обработчик
+     * нельзя запускать из нескольких потоков одновременно
+     */
+    public abstract static class Chunk {
+        private final RootTask root = new RootTask(this);
+        private ChunkTask[] tasks = new ChunkTask[0];
+
+        protected abstract void run(int start, int end);
+    }
+
+    /**
+     * Делит строки [0, count) на куски и обрабатывает их параллельно; возвращается, когда готовы все
+     */
+    public static void forEachChunk(int count, Chunk chunk) {
+        if (count <= 0) return;
+        if (count <= CHUNK_SIZE) {
+            chunk.run(0, count);
+            return;
+        }
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunk.tasks.length < chunks) {
+            int old = chunk.tasks.length;
+            chunk.tasks = Arrays.copyOf(chunk.tasks, chunks);
+            for (int i = old; i < chunks; i++) chunk.tasks[i] = new ChunkTask(chunk);
+        }
+        for (int i = 0; i < chunks; i++) {
+            ChunkTask task = chunk.tasks[i];
+            task.reinitialize();
+            task.start = i * CHUNK_SIZE;
+            task.end = Math.min(count, task.start + CHUNK_SIZE);
+        }
+        chunk.root.reinitialize();
+        chunk.root.chunks = chunks;
+        ForkJoinPool.commonPool().invoke(chunk.root);
+    }
+
+    /**
+     * Система движения: запоминает положение, поворот и масштаб как предыдущие и сдвигает сущности
+     * на скорость, умноженную на длину шага
+     */
+    public static void move(EntityStore store, float seconds) {
+        if (store.count == 0) return;
+        MOVE.store = store;
+        MOVE.seconds = seconds;
+        forEachChunk(store.count, MOVE);
+        MOVE.store = null;
+    }
+
+    /**
+     * Система преобразований: строит мировые матрицы между предыдущим и текущим шагом симуляции
+     * и ограничивающие сферы мешей в мировых координатах
+     *
+     * @param alpha 0 - предыдущий шаг, 1 - текущий
+     */
+    public static void buildTransforms(EntityStore store, float alpha) {
+        if (store.count == 0) return;
+        BUILD_TRANSFORMS.store = store;
+        BUILD_TRANSFORMS.alpha = alpha;
+        forEachChunk(store.count, BUILD_TRANSFORMS);
+        BUILD_TRANSFORMS.store = null;
+    }
+
+    /**
+     * Система отсечения: помечает видимыми сущности, чьи сферы пересекают пирамиду видимости
+     */
+    public static void cull(EntityStore store, FrustumCuller frustum) {
+        if (store.count == 0) return;
+        CULL.store = store;
+        CULL.frustum = frustum;
+        forEachChunk(store.count, CULL);
+        CULL.store = null;
+        CULL.frustum = null;
+    }
+
+    private static float lerp(float from, float to, float alpha) {
+        return from + (to - from) * alpha;
+    }
+
+    private static class Move extends Chunk {
+        private EntityStore store;
+        private float seconds;
+
+        @Override
+        protected void run(int start, int end) {
+            int from = start * EntityStore.VECTOR_FLOATS, to = end * EntityStore.VECTOR_FLOATS;
+            System.arraycopy(store.positions, from, store.previousPositions, from, to - from);
+            System.arraycopy(store.rotations, from, store.previousRotations, from, to - from);
+            System.arraycopy(store.scales, from, store.previousScales, from, to - from);
+            float[] positions = store.positions, rotations = store.rotations;
+            float[] velocities = store.velocities, angularVelocities = store.angularVelocities;
+            for (int i = from; i < to; i++) {
+                positions[i] += velocities[i] * seconds;
+                rotations[i] += angularVelocities[i] * seconds;
+            }
+        }
+    }
+
+    private static class BuildTransforms extends Chunk {
+        private EntityStore store;
+        private float alpha;
+
+        @Override
+        protected void run(int start, int end) {
+            float[] positions = store.positions, rotations = store.rotations, scales = store.scales;
+            float[] previousPositions = store.previousPositions, previousRotations = store.previousRotations;
+            float[] previousScales = store.previousScales;
+            float[] matrices = store.worldMatrices, spheres = store.spheres, meshBounds = store.meshBounds;
+            for (int row = start; row < end; row++) {
+                int v = row * EntityStore.VECTOR_FLOATS, m = row * EntityStore.MATRIX_FLOATS;
+                float sx = lerp(previousScales[v], scales[v], alpha);
+                float sy = lerp(previousScales[v + 1], scales[v + 1], alpha);
+                float sz = lerp(previousScales[v + 2], scales[v + 2], alpha);
+                SceneGraph.compose(
+                        lerp(previousPositions[v], positions[v], alpha),
+                        lerp(previousPositions[v + 1], positions[v + 1], alpha),
+                        lerp(previousPositions[v + 2], positions[v + 2], alpha),
+                        lerp(previousRotations[v], rotations[v], alpha),
+                        lerp(previousRotations[v + 1], rotations[v + 1], alpha),
+                        lerp(previousRotations[v + 2], rotations[v + 2], alpha),
+                        sx, sy, sz, matrices, m);
+
+                int b = store.meshes[row] * EntityStore.SPHERE_FLOATS, s = row * EntityStore.SPHERE_FLOATS;
+                float cx = meshBounds[b], cy = meshBounds[b + 1], cz = meshBounds[b + 2];
+                spheres[s] = matrices[m] * cx + matrices[m + 4] * cy + matrices[m + 8] * cz + matrices[m + 12];
+                spheres[s + 1] = matrices[m + 1] * cx + matrices[m + 5] * cy + matrices[m + 9] * cz + matrices[m + 13];
+                spheres[s + 2] = matrices[m + 2] * cx + matrices[m + 6] * cy + matrices[m + 10] * cz + matrices[m + 14];
+                // у матрицы из положения, поворота и масштаба длины столбцов равны модулям масштаба
+                spheres[s + 3] = meshBounds[b + 3] * Math.max(Math.abs(sx), Math.max(Math.abs(sy), Math.abs(sz)));
+            }
+        }
+    }
+
+    private static class Cull extends Chunk {
+        private EntityStore store;
+        private FrustumCuller frustum;
+
+        @Override
+        protected void run(int start, int end) {
+            float[] spheres = store.spheres;
+            boolean[] visible = store.visible;
+            for (int row = start; row < end; row++) {
+                int s = row * EntityStore.SPHERE_FLOATS;
+                visible[row] = frustum.testSphere(spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3]);
+            }
+        }
+    }
+
+    /**
+     * Запускает задачи кусков: все, кроме первого, отдаёт другим потокам, первый обрабатывает сам
+     */
+    private static class RootTask extends RecursiveAction {
+        private final Chunk chunk;
+        private int chunks;
+
+        private RootTask(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < chunks; i++) chunk.tasks[i].fork();
+            chunk.tasks[0].compute();
+            for (int i = chunks - 1; i > 0; i--) chunk.tasks[i].join();
+        }
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private final Chunk chunk;
+        private int start, end;
+
+        private ChunkTask(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            chunk.run(start, end);
+        }
+    }
+}
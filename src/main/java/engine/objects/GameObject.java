@@ -4,29 +4,139 @@ import main.java.engine.graphics.Mesh;
 
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
+import org.joml.Vector4f;
 
 
 public class GameObject {
     private Vector3f position, rotation, scale;
+    /**
+     * Положение, поворот и масштаб на предыдущем шаге симуляции; между ними и текущими
+     * значениями интерполируется матрица модели при отрисовке
+     */
+    private final Vector3f previousPosition = new Vector3f(), previousRotation = new Vector3f(),
+            previousScale = new Vector3f();
+    /**
+     * Матрица модели и значения, по которым она построена; по ним getModelMatrix() видит, что объект
+     * изменился, даже если его меняли через getPosition()/getRotation()/getScale()
+     */
+    private final Matrix4f modelMatrix = new Matrix4f();
+    private final Vector3f builtPosition = new Vector3f(Float.NaN), builtRotation = new Vector3f(),
+            builtScale = new Vector3f();
+    private final Matrix4f interpolatedMatrix = new Matrix4f();
+    private final Vector3f interpolatedPosition = new Vector3f(), interpolatedRotation = new Vector3f(),
+            interpolatedScale = new Vector3f();
     private Mesh mesh;
+    /**
+     * Узел в иерархии преобразований; у подключённого объекта положение, поворот и масштаб
+     * задаются относительно родителя
+     */
+    private SceneGraph graph;
+    private int node = SceneGraph.NONE;
+    /**
+     * Уровень детализации, выбранный в прошлом кадре; от него отсчитывается гистерезис
+     */
+    private int lod;
 
     public GameObject(Vector3f position, Vector3f rotation, Vector3f scale, Mesh mesh) {
         this.position = position;
         this.rotation = rotation;
         this.scale = scale;
         this.mesh = mesh;
+        storePreviousState();
     }
 
-    public Matrix4f getModelMatrix()
-    {
-        return new Matrix4f()
-                .translate(position)
-                .rotate(rotation.x, new Vector3f(1, 0, 0))
-                .rotate(rotation.y, new Vector3f(0, 1, 0))
-                .rotate(rotation.z, new Vector3f(0, 0, 1))
+    /**
+     * Матрица модели по текущему состоянию. Пересчитывается, только если положение, поворот или масштаб
+     * изменились с прошлого вызова; возвращается один и тот же объект, менять его нельзя.
+     */
+    public Matrix4f getModelMatrix() {
+        if (graph != null) return graph.getWorldMatrix(node, modelMatrix);
+        if (!position.equals(builtPosition) || !rotation.equals(builtRotation) || !scale.equals(builtScale)) {
+            buildModelMatrix(position, rotation, scale, modelMatrix);
+            builtPosition.set(position);
+            builtRotation.set(rotation);
+            builtScale.set(scale);
+        }
+        return modelMatrix;
+    }
+
+    /**
+     * Матрица модели между предыдущим и текущим шагом симуляции. Объект, не двигавшийся за последний шаг,
+     * получает закэшированную getModelMatrix(); возвращаемую матрицу менять нельзя.
+     *
+     * @param alpha 0 - предыдущий шаг, 1 - текущий
+     */
+    public Matrix4f getModelMatrix(float alpha) {
+        if (graph != null) {
+            return graph.isMoving(node) ? graph.getWorldMatrix(node, alpha, interpolatedMatrix) : getModelMatrix();
+        }
+        if (position.equals(previousPosition) && rotation.equals(previousRotation) && scale.equals(previousScale)) {
+            return getModelMatrix();
+        }
+        return buildModelMatrix(interpolatedPosition.set(previousPosition).lerp(position, alpha),
+                interpolatedRotation.set(previousRotation).lerp(rotation, alpha),
+                interpolatedScale.set(previousScale).lerp(scale, alpha), interpolatedMatrix);
+    }
+
+    private static Matrix4f buildModelMatrix(Vector3f position, Vector3f rotation, Vector3f scale, Matrix4f dest) {
+        return dest.translation(position)
+                .rotateXYZ(rotation.x, rotation.y, rotation.z)
                 .scale(scale);
     }
 
+    /**
+     * Подключает объект к иерархии преобразований. Мировая матрица объекта после этого берётся из graph
+     * и обновляется в SceneGraph.update().
+     *
+     * @param parent родитель, уже подключённый к тому же graph, или null для корня
+     */
+    public void attach(SceneGraph graph, GameObject parent) {
+        if (this.graph != null) throw new IllegalStateException("Object is already attached");
+        if (parent != null && parent.graph != graph) throw new IllegalArgumentException("Parent is not in this graph");
+        node = graph.add(parent == null ? SceneGraph.NONE : parent.node, position, rotation, scale);
+        this.graph = graph;
+    }
+
+    /**
+     * @return узел в иерархии или SceneGraph.NONE
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * Запоминает текущее состояние как предыдущее; вызывается в начале каждого шага симуляции
+     */
+    public void storePreviousState() {
+        previousPosition.set(position);
+        previousRotation.set(rotation);
+        previousScale.set(scale);
+    }
+
+    /**
+     * Ограничивающая сфера меша в мировых координатах: xyz - центр, w - радиус,
+     * умноженный на наибольший мировой коэффициент масштаба (длину столбца матрицы, с учётом родителей)
+     */
+    public Vector4f getWorldBoundingSphere(Matrix4f modelMatrix, Vector4f dest) {
+        float scaleX = modelMatrix.m00() * modelMatrix.m00() + modelMatrix.m01() * modelMatrix.m01()
+                + modelMatrix.m02() * modelMatrix.m02();
+        float scaleY = modelMatrix.m10() * modelMatrix.m10() + modelMatrix.m11() * modelMatrix.m11()
+                + modelMatrix.m12() * modelMatrix.m12();
+        float scaleZ = modelMatrix.m20() * modelMatrix.m20() + modelMatrix.m21() * modelMatrix.m21()
+                + modelMatrix.m22() * modelMatrix.m22();
+        float maxScale = (float) Math.sqrt(Math.max(scaleX, Math.max(scaleY, scaleZ)));
+        dest.set(mesh.getCenter(), 1).mul(modelMatrix);
+        dest.w = mesh.getRadius() * maxScale;
+        return dest;
+    }
+
+    /**
+     * AABB меша в мировых координатах (охватывает преобразованный локальный AABB)
+     */
+    public void getWorldAabb(Matrix4f modelMatrix, Vector3f min, Vector3f max) {
+        modelMatrix.transformAab(mesh.getMin(), mesh.getMax(), min, max);
+    }
+
     public void update() {
         position.z = position.z - 0.05f;
     }
@@ -46,4 +156,12 @@ public class GameObject {
     public Mesh getMesh() {
         return mesh;
     }
+
+    public int getLod() {
+        return lod;
+    }
+
+    public void setLod(int lod) {
+        this.lod = lod;
+    }
 }
@@ -0,0 +1,378 @@
+package main.java.engine.objects;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Иерархия преобразований: у узла есть локальные положение, поворот и масштаб относительно родителя,
+ * а мировая матрица узла равна мировой матрице родителя, умноженной на локальную.
+ *
+ * Узлы лежат в массивах в прямом порядке обхода: родитель стоит раньше детей, а поддерево занимает
+ * непрерывный отрезок. Мировые матрицы хранятся подряд в одном float[] по 16 чисел. update() пересчитывает
+ * только поддеревья узлов, у которых изменилась локальная трансформация, одним проходом по отрезку. Отрезки
+ * длиннее PARALLEL_THRESHOLD делятся по границам поддеревьев-братьев и считаются в общем ForkJoinPool: разные
+ * поддеревья не пишут в общие матрицы.
+ *
+ * Снаружи узел обозначается номером, который не меняется при вставке и удалении других узлов. Узел,
+ * привязанный к GameObject, берёт локальную трансформацию из векторов объекта. Их по-прежнему можно менять
+ * напрямую, а update() сравнивает их с сохранёнными значениями.
+ */
+public class SceneGraph {
+    public static final int NONE = -1;
+    /** отрезок короче этого числа узлов считается в одном потоке */
+    private static final int PARALLEL_THRESHOLD = 512;
+    private static final int LOCAL_FLOATS = 9;
+    private static final int MATRIX_FLOATS = 16;
+
+    private int count;
+    // по позиции в прямом порядке
+    private int[] parent = new int[16], subtreeEnd = new int[16], handles = new int[16];
+    private float[] local = new float[16 * LOCAL_FLOATS];
+    private float[] world = new float[16 * MATRIX_FLOATS], previousWorld = new float[16 * MATRIX_FLOATS];
+    // по номеру узла
+    private int[] indices = new int[16];
+    private Vector3f[] positions = new Vector3f[16], rotations = new Vector3f[16], scales = new Vector3f[16];
+    private boolean[] dirty = new boolean[16], fresh = new boolean[16];
+    private int handleCount;
+    private int[] freeHandles = new int[16];
+    private int freeCount;
+    private int[] dirtyList = new int[16], freshList = new int[16];
+    private int dirtyCount, freshCount;
+    private final float[] interpolated = new float[MATRIX_FLOATS];
+
+    /**
+     * Добавляет узел с единичной локальной трансформацией
+     *
+     * @param parentNode родитель или NONE для корня
+     * @return номер узла
+     */
+    public int add(int parentNode) {
+        int parentIndex = parentNode == NONE ? NONE : indices[parentNode];
+        int position = parentIndex == NONE ? count : subtreeEnd[parentIndex];
+        int node = allocateHandle();
+        insert(position, parentIndex, node);
+        setLocal(position, 0, 0, 0, 0, 0, 0, 1, 1, 1);
+        markDirty(node);
+        fresh[node] = true;
+        freshList = push(freshList, freshCount++, node);
+        return node;
+    }
+
+    /**
+     * Добавляет узел, локальная трансформация которого читается из векторов при каждом update()
+     */
+    public int add(int parentNode, Vector3f position, Vector3f rotation, Vector3f scale) {
+        int node = add(parentNode);
+        positions[node] = position;
+        rotations[node] = rotation;
+        scales[node] = scale;
+        setLocal(node, position, rotation, scale);
+        return node;
+    }
+
+    /**
+     * Удаляет узел вместе со всеми потомками
+     */
+    public void remove(int node) {
+        int start = indices[node], end = subtreeEnd[start], removed = end - start;
+        for (int i = start; i < end; i++) freeHandle(handles[i]);
+        for (int a = parent[start]; a != NONE; a = parent[a]) subtreeEnd[a] -= removed;
+        for (int i = end; i < count; i++) {
+            subtreeEnd[i] -= removed;
+            if (parent[i] >= end) parent[i] -= removed;
+        }
+        shift(end, start, count - end);
+        count -= removed;
+        for (int i = start; i < count; i++) indices[handles[i]] = i;
+    }
+
+    /**
+     * Задаёт локальную трансформацию узла, не привязанного к объекту; поддерево пересчитается, только если
+     * значения изменились
+     */
+    public void setLocal(int node, Vector3f position, Vector3f rotation, Vector3f scale) {
+        if (setLocal(indices[node], position.x, position.y, position.z, rotation.x, rotation.y, rotation.z,
+                scale.x, scale.y, scale.z)) {
+            markDirty(node);
+        }
+    }
+
+    /**
+     * Пересчитывает мировые матрицы изменившихся поддеревьев. Привязанные к объектам узлы сначала сверяются
+     * с векторами объектов - это сравнение девяти чисел на узел, матрицы же считаются только для изменившихся.
+     */
+    public void update() {
+        for (int node = 0; node < handleCount; node++) {
+            if (positions[node] != null && setLocal(indices[node], positions[node].x, positions[node].y,
+                    positions[node].z, rotations[node].x, rotations[node].y, rotations[node].z,
+                    scales[node].x, scales[node].y, scales[node].z)) {
+                markDirty(node);
+            }
+        }
+
+        int roots = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            int node = dirtyList[i];
+            if (!dirty[node]) continue;
+            dirty[node] = false;
+            dirtyList[roots++] = indices[node];
+        }
+        dirtyCount = 0;
+        Arrays.sort(dirtyList, 0, roots);
+
+        List<SubtreeUpdate> parallel = null;
+        int end = 0;
+        for (int i = 0; i < roots; i++) {
+            int start = dirtyList[i];
+            // внутри уже пересчитанного поддерева
+            if (start < end) continue;
+            end = subtreeEnd[start];
+            if (end - start < PARALLEL_THRESHOLD) {
+                updateRange(start, end);
+            } else {
+                if (parallel == null) parallel = new ArrayList<>();
+                parallel.add(new SubtreeUpdate(start, end));
+            }
+        }
+        if (parallel != null) ForkJoinTask.invokeAll(parallel);
+
+        // новым узлам нечего интерполировать: предыдущее состояние совпадает с текущим
+        for (int i = 0; i < freshCount; i++) {
+            int node = freshList[i];
+            if (!fresh[node]) continue;
+            fresh[node] = false;
+            System.arraycopy(world, indices[node] * MATRIX_FLOATS, previousWorld, indices[node] * MATRIX_FLOATS,
+                    MATRIX_FLOATS);
+        }
+        freshCount = 0;
+    }
+
+    /**
+     * Запоминает мировые матрицы как предыдущие; вызывается в начале каждого шага симуляции
+     */
+    public void storePreviousState() {
+        System.arraycopy(world, 0, previousWorld, 0, count * MATRIX_FLOATS);
+    }
+
+    public Matrix4f getWorldMatrix(int node, Matrix4f dest) {
+        return dest.set(world, indices[node] * MATRIX_FLOATS);
+    }
+
+    /**
+     * Мировая матрица между предыдущим и текущим шагом симуляции (поэлементная интерполяция,
+     * при малых перемещениях за шаг неотличимая от интерполяции положения и поворота)
+     */
+    public Matrix4f getWorldMatrix(int node, float alpha, Matrix4f dest) {
+        int offset = indices[node] * MATRIX_FLOATS;
+        for (int i = 0; i < MATRIX_FLOATS; i++) {
+            interpolated[i] = previousWorld[offset + i] + (world[offset + i] - previousWorld[offset + i]) * alpha;
+        }
+        return dest.set(interpolated);
+    }
+
+    /**
+     * @return изменилась ли мировая матрица узла за последний шаг симуляции
+     */
+    public boolean isMoving(int node) {
+        int offset = indices[node] * MATRIX_FLOATS;
+        for (int i = 0; i < MATRIX_FLOATS; i++) {
+            if (world[offset + i] != previousWorld[offset + i]) return true;
+        }
+        return false;
+    }
+
+    public Vector3f getWorldPosition(int node, Vector3f dest) {
+        int offset = indices[node] * MATRIX_FLOATS;
+        return dest.set(world[offset + 12], world[offset + 13], world[offset + 14]);
+    }
+
+    /**
+     * @return родитель узла или NONE
+     */
+    public int getParent(int node) {
+        int parentIndex = parent[indices[node]];
+        return parentIndex == NONE ? NONE : handles[parentIndex];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Считает мировые матрицы узлов отрезка по порядку; родитель первого узла отрезка уже посчитан
+     */
+    private void updateRange(int start, int end) {
+        for (int i = start; i < end; i++) updateWorld(i);
+    }
+
+    /**
+     * world = world родителя * локальная матрица
+     */
+    private void updateWorld(int index) {
+        int l = index * LOCAL_FLOATS, w = index * MATRIX_FLOATS;
+        compose(local[l], local[l + 1], local[l + 2], local[l + 3], local[l + 4], local[l + 5],
+                local[l + 6], local[l + 7], local[l + 8], world, w);
+
+        if (parent[index] == NONE) return;
+        int p = parent[index] * MATRIX_FLOATS;
+        for (int column = w; column < w + MATRIX_FLOATS; column += 4) {
+            float x = world[column], y = world[column + 1], z = world[column + 2], t = world[column + 3];
+            for (int row = 0; row < 4; row++) {
+                world[column + row] = world[p + row] * x + world[p + 4 + row] * y + world[p + 8 + row] * z
+                        + world[p + 12 + row] * t;
+            }
+        }
+    }
+
+    /**
+     * Записывает по смещению offset матрицу translation(position) * rotateXYZ(rotation) * scale(scale)
+     * по столбцам, как её строит GameObject через JOML
+     */
+    static void compose(float px, float py, float pz, float rx, float ry, float rz, float sx, float sy, float sz,
+                        float[] dest, int offset) {
+        float sinX = (float) Math.sin(rx), cosX = (float) Math.cos(rx);
+        float sinY = (float) Math.sin(ry), cosY = (float) Math.cos(ry);
+        float sinZ = (float) Math.sin(rz), cosZ = (float) Math.cos(rz);
+
+        dest[offset] = cosY * cosZ * sx;
+        dest[offset + 1] = (sinX * sinY * cosZ + cosX * sinZ) * sx;
+        dest[offset + 2] = (sinX * sinZ - cosX * sinY * cosZ) * sx;
+        dest[offset + 3] = 0;
+        dest[offset + 4] = -cosY * sinZ * sy;
+        dest[offset + 5] = (cosX * cosZ - sinX * sinY * sinZ) * sy;
+        dest[offset + 6] = (cosX * sinY * sinZ + sinX * cosZ) * sy;
+        dest[offset + 7] = 0;
+        dest[offset + 8] = sinY * sz;
+        dest[offset + 9] = -sinX * cosY * sz;
+        dest[offset + 10] = cosX * cosY * sz;
+        dest[offset + 11] = 0;
+        dest[offset + 12] = px;
+        dest[offset + 13] = py;
+        dest[offset + 14] = pz;
+        dest[offset + 15] = 1;
+    }
+
+    /**
+     * Отрезок из подряд идущих поддеревьев-братьев. У отрезка из одного поддерева сначала считается корень,
+     * дальше остаётся отрезок его детей; длинный отрезок из нескольких поддеревьев делится пополам по их границе.
+     */
+    private class SubtreeUpdate extends RecursiveAction {
+        private final int start, end;
+
+        private SubtreeUpdate(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            int first = start;
+            while (end - first >= PARALLEL_THRESHOLD && subtreeEnd[first] == end) updateWorld(first++);
+            if (end - first < PARALLEL_THRESHOLD) {
+                updateRange(first, end);
+                return;
+            }
+            int middle = subtreeEnd[first];
+            while (middle < end && middle - first < (end - first) / 2) middle = subtreeEnd[middle];
+            if (middle == end) middle = subtreeEnd[first];
+            invokeAll(new SubtreeUpdate(first, middle), new SubtreeUpdate(middle, end));
+        }
+    }
+
+    private boolean setLocal(int index, float px, float py, float pz, float rx, float ry, float rz,
+                             float sx, float sy, float sz) {
+        int l = index * LOCAL_FLOATS;
+        if (local[l] == px && local[l + 1] == py && local[l + 2] == pz && local[l + 3] == rx && local[l + 4] == ry
+                && local[l + 5] == rz && local[l + 6] == sx && local[l + 7] == sy && local[l + 8] == sz) {
+            return false;
+        }
+        local[l] = px;
+        local[l + 1] = py;
+        local[l + 2] = pz;
+        local[l + 3] = rx;
+        local[l + 4] = ry;
+        local[l + 5] = rz;
+        local[l + 6] = sx;
+        local[l + 7] = sy;
+        local[l + 8] = sz;
+        return true;
+    }
+
+    private void markDirty(int node) {
+        if (dirty[node]) return;
+        dirty[node] = true;
+        dirtyList = push(dirtyList, dirtyCount++, node);
+    }
+
+    /**
+     * Вставляет узел в позицию position, сдвигая следующие узлы на одну вправо
+     */
+    private void insert(int position, int parentIndex, int node) {
+        if (count == parent.length) {
+            int capacity = count * 2;
+            parent = Arrays.copyOf(parent, capacity);
+            subtreeEnd = Arrays.copyOf(subtreeEnd, capacity);
+            handles = Arrays.copyOf(handles, capacity);
+            local = Arrays.copyOf(local, capacity * LOCAL_FLOATS);
+            world = Arrays.copyOf(world, capacity * MATRIX_FLOATS);
+            previousWorld = Arrays.copyOf(previousWorld, capacity * MATRIX_FLOATS);
+        }
+        for (int i = position; i < count; i++) {
+            subtreeEnd[i]++;
+            if (parent[i] >= position) parent[i]++;
+        }
+        for (int a = parentIndex; a != NONE; a = parent[a]) subtreeEnd[a]++;
+        shift(position, position + 1, count - position);
+        count++;
+        parent[position] = parentIndex;
+        subtreeEnd[position] = position + 1;
+        handles[position] = node;
+        for (int i = position; i < count; i++) indices[handles[i]] = i;
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(parent, from, parent, to, length);
+        System.arraycopy(subtreeEnd, from, subtreeEnd, to, length);
+        System.arraycopy(handles, from, handles, to, length);
+        System.arraycopy(local, from * LOCAL_FLOATS, local, to * LOCAL_FLOATS, length * LOCAL_FLOATS);
+        System.arraycopy(world, from * MATRIX_FLOATS, world, to * MATRIX_FLOATS, length * MATRIX_FLOATS);
+        System.arraycopy(previousWorld, from * MATRIX_FLOATS, previousWorld, to * MATRIX_FLOATS,
+                length * MATRIX_FLOATS);
+    }
+
+    private int allocateHandle() {
+        if (freeCount > 0) return freeHandles[--freeCount];
+        if (handleCount == indices.length) {
+            int capacity = handleCount * 2;
+            indices = Arrays.copyOf(indices, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            rotations = Arrays.copyOf(rotations, capacity);
+            scales = Arrays.copyOf(scales, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+            fresh = Arrays.copyOf(fresh, capacity);
+        }
+        return handleCount++;
+    }
+
+    private void freeHandle(int node) {
+        indices[node] = NONE;
+        positions[node] = null;
+        rotations[node] = null;
+        scales[node] = null;
+        dirty[node] = false;
+        fresh[node] = false;
+        freeHandles = push(freeHandles, freeCount++, node);
+    }
+
+    private static int[] push(int[] array, int size, int value) {
+        if (size == array.length) array = Arrays.copyOf(array, size * 2);
+        array[size] = value;
+        return array;
+    }
+}
@@ -0,0 +1,380 @@
+package main.java.engine.objects;
+
+import main.java.engine.graphics.FrustumCuller;
+
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Динамическое дерево AABB (BVH) над объектами сцены.
+ *
+ * Листья хранят расширенные ("толстые") AABB с запасом margin, поэтому небольшие перемещения
+ * не меняют дерево. Вставка выбирает соседа по приросту площади поверхности, после вставки и удаления
+ * дерево балансируется поворотами, так что вставка, перемещение и удаление стоят O(log n),
+ * а запросы обходят только пересекаемые ветви. Узлы лежат в примитивных массивах и переиспользуются
+ * через список свободных.
+ */
+public class SpatialIndex<T> {
+    public static final int NULL = -1;
+
+    private final float margin;
+    private float[] bounds = new float[16 * 6];
+    private int[] parent = new int[16], child1 = new int[16], child2 = new int[16], height = new int[16];
+    private Object[] items = new Object[16];
+    private int root = NULL, freeList = NULL, nodeCount, leafCount;
+    private int[] stack = new int[64];
+
+    /**
+     * @param margin запас, на который AABB листа расширяется во все стороны
+     */
+    public SpatialIndex(float margin) {
+        this.margin = margin;
+        buildFreeList(0);
+    }
+
+    /**
+     * @return номер листа, по которому объект перемещается и удаляется
+     */
+    public int insert(T item, Vector3f min, Vector3f max) {
+        int leaf = allocateNode();
+        setFatBounds(leaf, min, max);
+        items[leaf] = item;
+        height[leaf] = 0;
+        insertLeaf(leaf);
+        leafCount++;
+        return leaf;
+    }
+
+    public void remove(int proxy) {
+        removeLeaf(proxy);
+        freeNode(proxy);
+        leafCount--;
+    }
+
+    /**
+     * Обновляет границы объекта. Дерево перестраивается, только если новые границы вышли за расширенные.
+     *
+     * @return true, если лист был переставлен
+     */
+    public boolean move(int proxy, Vector3f min, Vector3f max) {
+        int b = proxy * 6;
+        if (bounds[b] <= min.x && bounds[b + 1] <= min.y && bounds[b + 2] <= min.z
+                && bounds[b + 3] >= max.x && bounds[b + 4] >= max.y && bounds[b + 5] >= max.z) {
+            return false;
+        }
+        removeLeaf(proxy);
+        setFatBounds(proxy, min, max);
+        insertLeaf(proxy);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int proxy) {
+        return (T) items[proxy];
+    }
+
+    public int size() {
+        return leafCount;
+    }
+
+    /**
+     * Добавляет в result объекты, чьи расширенные AABB пересекают пирамиду видимости.
+     * Если узел целиком внутри, его поддерево добавляется без проверок.
+     */
+    public void queryFrustum(FrustumCuller frustum, List<T> result) {
+        if (root == NULL) return;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            int test = frustum.testAabb(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5]);
+            if (test == FrustumCuller.OUTSIDE) continue;
+            if (test == FrustumCuller.INSIDE) {
+                collect(node, top, result);
+            } else if (isLeaf(node)) {
+                result.add(get(node));
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Добавляет в result объекты, чьи расширенные AABB пересекают сферу
+     */
+    public void querySphere(float x, float y, float z, float radius, List<T> result) {
+        if (root == NULL) return;
+        float radiusSquared = radius * radius;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            float dx = Math.max(bounds[b] - x, Math.max(0, x - bounds[b + 3]));
+            float dy = Math.max(bounds[b + 1] - y, Math.max(0, y - bounds[b + 4]));
+            float dz = Math.max(bounds[b + 2] - z, Math.max(0, z - bounds[b + 5]));
+            if (dx * dx + dy * dy + dz * dz > radiusSquared) continue;
+            if (isLeaf(node)) {
+                result.add(get(node));
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Добавляет в result объекты, чьи расширенные AABB пересекает луч origin + t * direction, 0 <= t <= maxDistance
+     */
+    public void queryRay(Vector3f origin, Vector3f direction, float maxDistance, List<T> result) {
+        if (root == NULL) return;
+        float invX = 1.0f / direction.x, invY = 1.0f / direction.y, invZ = 1.0f / direction.z;
+        int top = push(0, root);
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            float t1 = (bounds[b] - origin.x) * invX, t2 = (bounds[b + 3] - origin.x) * invX;
+            float near = Math.min(t1, t2), far = Math.max(t1, t2);
+            t1 = (bounds[b + 1] - origin.y) * invY;
+            t2 = (bounds[b + 4] - origin.y) * invY;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+            t1 = (bounds[b + 2] - origin.z) * invZ;
+            t2 = (bounds[b + 5] - origin.z) * invZ;
+            near = Math.max(near, Math.min(t1, t2));
+            far = Math.min(far, Math.max(t1, t2));
+            // NaN от 0 * бесконечность означает луч в плоскости грани - такой узел не отбрасывается
+            if (near > far || far < 0 || near > maxDistance) continue;
+            if (isLeaf(node)) {
+                result.add(get(node));
+            } else {
+                top = push(top, child1[node]);
+                top = push(top, child2[node]);
+            }
+        }
+    }
+
+    /**
+     * Добавляет все листья поддерева, используя стек выше позиции base
+     */
+    private void collect(int node, int base, List<T> result) {
+        int top = push(base, node);
+        while (top > base) {
+            int current = stack[--top];
+            if (isLeaf(current)) {
+                result.add(get(current));
+            } else {
+                top = push(top, child1[current]);
+                top = push(top, child2[current]);
+            }
+        }
+    }
+
+    private int push(int top, int node) {
+        if (top == stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+        stack[top] = node;
+        return top + 1;
+    }
+
+    private boolean isLeaf(int node) {
+        return child1[node] == NULL;
+    }
+
+    private void setFatBounds(int node, Vector3f min, Vector3f max) {
+        int b = node * 6;
+        bounds[b] = min.x - margin;
+        bounds[b + 1] = min.y - margin;
+        bounds[b + 2] = min.z - margin;
+        bounds[b + 3] = max.x + margin;
+        bounds[b + 4] = max.y + margin;
+        bounds[b + 5] = max.z + margin;
+    }
+
+    private int allocateNode() {
+        if (freeList == NULL) {
+            int capacity = parent.length * 2;
+            bounds = Arrays.copyOf(bounds, capacity * 6);
+            parent = Arrays.copyOf(parent, capacity);
+            child1 = Arrays.copyOf(child1, capacity);
+            child2 = Arrays.copyOf(child2, capacity);
+            height = Arrays.copyOf(height, capacity);
+            items = Arrays.copyOf(items, capacity);
+            buildFreeList(nodeCount);
+        }
+        int node = freeList;
+        freeList = parent[node];
+        parent[node] = NULL;
+        child1[node] = NULL;
+        child2[node] = NULL;
+        height[node] = 0;
+        nodeCount++;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        items[node] = null;
+        height[node] = -1;
+        parent[node] = freeList;
+        freeList = node;
+        nodeCount--;
+    }
+
+    private void buildFreeList(int from) {
+        for (int i = from; i < parent.length - 1; i++) {
+            parent[i] = i + 1;
+            height[i] = -1;
+        }
+        parent[parent.length - 1] = NULL;
+        height[parent.length - 1] = -1;
+        freeList = from;
+    }
+
+    private void insertLeaf(int leaf) {
+        if (root == NULL) {
+            root = leaf;
+            parent[leaf] = NULL;
+            return;
+        }
+
+        // спуск к соседу с наименьшей стоимостью по площади поверхности
+        int index = root;
+        while (!isLeaf(index)) {
+            float area = area(index, index);
+            float combinedArea = area(index, leaf);
+            float cost = 2 * combinedArea;
+            float inheritance = 2 * (combinedArea - area);
+            float cost1 = descendCost(child1[index], leaf) + inheritance;
+            float cost2 = descendCost(child2[index], leaf) + inheritance;
+            if (cost < cost1 && cost < cost2) break;
+            index = cost1 < cost2 ? child1[index] : child2[index];
+        }
+        int sibling = index;
+
+        int oldParent = parent[sibling];
+        int newParent = allocateNode();
+        parent[newParent] = oldParent;
+        union(newParent, leaf, sibling);
+        height[newParent] = height[sibling] + 1;
+        if (oldParent != NULL) {
+            if (child1[oldParent] == sibling) child1[oldParent] = newParent;
+            else child2[oldParent] = newParent;
+        } else {
+            root = newParent;
+        }
+        child1[newParent] = sibling;
+        child2[newParent] = leaf;
+        parent[sibling] = newParent;
+        parent[leaf] = newParent;
+
+        refit(parent[leaf]);
+    }
+
+    private float descendCost(int child, int leaf) {
+        float combined = area(child, leaf);
+        return isLeaf(child) ? combined : combined - area(child, child);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == root) {
+            root = NULL;
+            return;
+        }
+        int oldParent = parent[leaf];
+        int grandParent = parent[oldParent];
+        int sibling = child1[oldParent] == leaf ? child2[oldParent] : child1[oldParent];
+
+        if (grandParent != NULL) {
+            if (child1[grandParent] == oldParent) child1[grandParent] = sibling;
+            else child2[grandParent] = sibling;
+            parent[sibling] = grandParent;
+            freeNode(oldParent);
+            refit(grandParent);
+        } else {
+            root = sibling;
+            parent[sibling] = NULL;
+            freeNode(oldParent);
+        }
+    }
+
+    /**
+     * Поднимается от узла к корню, балансируя и пересчитывая высоты и границы
+     */
+    private void refit(int index) {
+        while (index != NULL) {
+            index = balance(index);
+            height[index] = 1 + Math.max(height[child1[index]], height[child2[index]]);
+            union(index, child1[index], child2[index]);
+            index = parent[index];
+        }
+    }
+
+    /**
+     * Поворот вокруг узла a, если высоты его детей различаются больше чем на 1
+     *
+     * @return узел, оказавшийся на месте a
+     */
+    private int balance(int a) {
+        if (isLeaf(a) || height[a] < 2) return a;
+
+        int b = child1[a], c = child2[a];
+        int difference = height[c] - height[b];
+        if (difference > 1) return rotateUp(a, c, b, false);
+        if (difference < -1) return rotateUp(a, b, c, true);
+        return a;
+    }
+
+    /**
+     * Поднимает ребёнка up на место a; более высокий внук остаётся у up, более низкий переходит к a
+     * вместо up. stay - второй ребёнок a, upIsFirst - был ли up первым ребёнком a.
+     */
+    private int rotateUp(int a, int up, int stay, boolean upIsFirst) {
+        int f = child1[up], g = child2[up];
+
+        child1[up] = a;
+        parent[up] = parent[a];
+        parent[a] = up;
+        int upParent = parent[up];
+        if (upParent != NULL) {
+            if (child1[upParent] == a) child1[upParent] = up;
+            else child2[upParent] = up;
+        } else {
+            root = up;
+        }
+
+        int keep = height[f] > height[g] ? f : g;
+        int move = keep == f ? g : f;
+        child2[up] = keep;
+        if (upIsFirst) child1[a] = move;
+        else child2[a] = move;
+        parent[move] = a;
+
+        union(a, stay, move);
+        union(up, a, keep);
+        height[a] = 1 + Math.max(height[stay], height[move]);
+        height[up] = 1 + Math.max(height[a], height[keep]);
+        return up;
+    }
+
+    private void union(int target, int first, int second) {
+        int t = target * 6, f = first * 6, s = second * 6;
+        bounds[t] = Math.min(bounds[f], bounds[s]);
+        bounds[t + 1] = Math.min(bounds[f + 1], bounds[s + 1]);
+        bounds[t + 2] = Math.min(bounds[f + 2], bounds[s + 2]);
+        bounds[t + 3] = Math.max(bounds[f + 3], bounds[s + 3]);
+        bounds[t + 4] = Math.max(bounds[f + 4], bounds[s + 4]);
+        bounds[t + 5] = Math.max(bounds[f + 5], bounds[s + 5]);
+    }
+
+    /**
+     * Площадь поверхности объединения AABB двух узлов
+     */
+    private float area(int first, int second) {
+        int f = first * 6, s = second * 6;
+        float dx = Math.max(bounds[f + 3], bounds[s + 3]) - Math.min(bounds[f], bounds[s]);
+        float dy = Math.max(bounds[f + 4], bounds[s + 4]) - Math.min(bounds[f + 1], bounds[s + 1]);
+        float dz = Math.max(bounds[f + 5], bounds[s + 5]) - Math.min(bounds[f + 2], bounds[s + 2]);
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+}
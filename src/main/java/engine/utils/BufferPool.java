@@ -0,0 +1,61 @@
+package main.java.engine.utils;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул прямых буферов для ресурсов, которые нельзя отобразить в память (записи архивов, сжатые записи jar).
+ * Буферы раздаются по классам размеров-степеням двойки и после release() переиспользуются; свободных буферов
+ * хранится не больше MAX_RETAINED байт, остальные освобождаются сразу. Потокобезопасен.
+ */
+public class BufferPool {
+	private static final int MIN_SIZE_CLASS = 12; // 4 КБ
+	private static final int SIZE_CLASSES = 31 - MIN_SIZE_CLASS;
+	private static final long MAX_RETAINED = 64L << 20;
+
+	private static final Queue<ByteBuffer>[] free = createQueues();
+	private static final AtomicLong retained = new AtomicLong();
+
+	@SuppressWarnings("unchecked")
+	private static Queue<ByteBuffer>[] createQueues() {
+		Queue<ByteBuffer>[] queues = new Queue[SIZE_CLASSES];
+		for (int i = 0; i < queues.length; i++) queues[i] = new ConcurrentLinkedQueue<>();
+		return queues;
+	}
+
+	/**
+	 * @return буфер ёмкостью не меньше size с position 0 и limit size
+	 */
+	public static ByteBuffer acquire(int size) {
+		int sizeClass = getSizeClass(size);
+		ByteBuffer buffer = free[sizeClass].poll();
+		if (buffer != null) {
+			retained.addAndGet(-buffer.capacity());
+		} else {
+			buffer = MemoryUtil.memAlloc(1 << (sizeClass + MIN_SIZE_CLASS));
+		}
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Возвращает буфер, полученный из acquire(); после этого буфер использовать нельзя
+	 */
+	public static void release(ByteBuffer buffer) {
+		if (retained.addAndGet(buffer.capacity()) > MAX_RETAINED) {
+			retained.addAndGet(-buffer.capacity());
+			MemoryUtil.memFree(buffer);
+			return;
+		}
+		free[getSizeClass(buffer.capacity())].add(buffer);
+	}
+
+	private static int getSizeClass(int size) {
+		int bits = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+		return Math.max(bits - MIN_SIZE_CLASS, 0);
+	}
+}
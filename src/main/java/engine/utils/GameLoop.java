@@ -0,0 +1,137 @@
+package main.java.engine.utils;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Игровой цикл с фиксированным шагом симуляции.
+ *
+ * Симуляция выполняется шагами по TICK_SECONDS независимо от частоты кадров, а кадр рисует состояние
+ * между двумя последними шагами с долей interpolation, которую возвращает advance(). Отрисовка поэтому может
+ * идти с вертикальной синхронизацией или без неё, не меняя скорость игры.
+ *
+ * В однопоточном режиме шаги выполняет advance() по накопленному времени кадров. В многопоточном режиме
+ * шаги идут в отдельном потоке по своему расписанию, а advance() только считает долю для интерполяции.
+ * Состояние, общее для симуляции и отрисовки, защищено getStateLock(): шаг выполняется под ним, и отрисовка
+ * берёт его на время чтения сцены.
+ *
+ * Если шаги не успевают за временем (больше MAX_TICKS_PER_FRAME подряд), отставание отбрасывается:
+ * симуляция замедляется, но не уходит в бесконечную погоню за временем.
+ */
+public class GameLoop {
+	public static final int TICK_RATE = 60;
+	public static final float TICK_SECONDS = 1.0f / TICK_RATE;
+	private static final long TICK_NANOS = 1_000_000_000L / TICK_RATE;
+	private static final int MAX_TICKS_PER_FRAME = 5;
+
+	private final Runnable tick;
+	private final boolean threaded;
+	private final ReentrantLock stateLock = new ReentrantLock();
+	private Thread simulation;
+	private volatile boolean running;
+	private volatile long lastTickTime, tickTime;
+	private long accumulator, previousTime;
+
+	/**
+	 * @param tick     один шаг симуляции длиной TICK_SECONDS
+	 * @param threaded выполнять шаги в отдельном потоке
+	 */
+	public GameLoop(Runnable tick, boolean threaded) {
+		this.tick = tick;
+		this.threaded = threaded;
+	}
+
+	public void start() {
+		running = true;
+		previousTime = System.nanoTime();
+		lastTickTime = previousTime;
+		if (threaded) {
+			simulation = new Thread(this::runSimulation, "simulation");
+			simulation.setDaemon(true);
+			simulation.start();
+		}
+	}
+
+	/**
+	 * Вызывается один раз за кадр перед отрисовкой
+	 *
+	 * @return доля от 0 до 1, на которую кадр продвинулся от предпоследнего шага к последнему
+	 */
+	public float advance() {
+		long now = System.nanoTime();
+		if (threaded) return Math.min((now - lastTickTime) / (float) TICK_NANOS, 1.0f);
+
+		accumulator += now - previousTime;
+		previousTime = now;
+		int ticks = 0;
+		// шаг k отвечает моменту, до которого досчитана симуляция после него
+		long time = now - accumulator;
+		while (accumulator >= TICK_NANOS && ticks < MAX_TICKS_PER_FRAME) {
+			time += TICK_NANOS;
+			runTick(time);
+			accumulator -= TICK_NANOS;
+			ticks++;
+		}
+		if (accumulator >= TICK_NANOS) accumulator = 0;
+		return accumulator / (float) TICK_NANOS;
+	}
+
+	private void runSimulation() {
+		long next = System.nanoTime();
+		while (running) {
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			int ticks = 0;
+			while (now >= next && ticks < MAX_TICKS_PER_FRAME) {
+				runTick(next);
+				next += TICK_NANOS;
+				ticks++;
+			}
+			if (now >= next) next = now;
+		}
+	}
+
+	private void runTick(long time) {
+		stateLock.lock();
+		try {
+			tickTime = time;
+			tick.run();
+			lastTickTime = time;
+		} finally {
+			stateLock.unlock();
+		}
+	}
+
+	/**
+	 * Время текущего шага по System.nanoTime; шаг забирает события ввода не позже него
+	 */
+	public long getTickTime() {
+		return tickTime;
+	}
+
+	/**
+	 * Блокировка состояния симуляции; отрисовка держит её, пока читает сцену
+	 */
+	public ReentrantLock getStateLock() {
+		return stateLock;
+	}
+
+	public boolean isThreaded() {
+		return threaded;
+	}
+
+	public void stop() {
+		running = false;
+		if (simulation != null) {
+			try {
+				simulation.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			simulation = null;
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package main.java.engine.utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.lwjgl.opengl.GL46C.*;
+
+/**
+ * Профилировщик кадра с вложенными именованными участками.
+ *
+ * Участок открывается begin(name) и закрывается end(); вложенные участки получают путь вида
+ * "frame/render/culling". Время процессора меряется System.nanoTime в любом потоке. В потоке отрисовки
+ * (том, что вызывает beginFrame) участок ещё и ставит в поток команд OpenGL пару меток GL_TIMESTAMP: запросы
+ * GL_TIME_ELAPSED нельзя вкладывать друг в друга, а разность двух меток даёт то же время на GPU.
+ *
+ * Запросы кадра читаются только через FRAMES_IN_FLIGHT кадров, когда их результат уже готов, поэтому чтение
+ * не останавливает конвейер; если результат всё же не готов, замер отбрасывается. Для каждого участка
+ * хранятся последние SAMPLES замеров, по ним считаются перцентили; writeCsv и writeJson сохраняют сводку.
+ */
+public class Profiler {
+	public static final String FRAME = "frame";
+	private static final int FRAMES_IN_FLIGHT = 4;
+	private static final int SAMPLES = 240;
+	private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+	private static final Scope root = new Scope("");
+	private static final List<Scope> scopes = new CopyOnWriteArrayList<>();
+	private static final ThreadLocal<ScopeStack> stacks = ThreadLocal.withInitial(ScopeStack::new);
+	private static final FrameQueries[] frames = new FrameQueries[FRAMES_IN_FLIGHT];
+	private static volatile Thread renderThread;
+	private static int frameIndex;
+
+	/**
+	 * Начинает кадр в потоке отрисовки: забирает результаты запросов кадра, сделанного FRAMES_IN_FLIGHT кадров
+	 * назад, и открывает участок FRAME
+	 */
+	public static void beginFrame() {
+		renderThread = Thread.currentThread();
+		frameIndex = (frameIndex + 1) % FRAMES_IN_FLIGHT;
+		if (frames[frameIndex] == null) frames[frameIndex] = new FrameQueries();
+		frames[frameIndex].collect();
+		begin(FRAME);
+	}
+
+	public static void endFrame() {
+		end();
+	}
+
+	public static void begin(String name) {
+		ScopeStack stack = stacks.get();
+		Scope parent = stack.depth > 0 ? stack.scopes[stack.depth - 1] : root;
+		Scope scope = parent.getChild(name);
+		int query = -1;
+		if (Thread.currentThread() == renderThread) query = frames[frameIndex].begin(scope);
+		stack.push(scope, query, System.nanoTime());
+	}
+
+	public static void end() {
+		long now = System.nanoTime();
+		ScopeStack stack = stacks.get();
+		if (stack.depth == 0) throw new IllegalStateException("Profiler.end() without begin()");
+		stack.depth--;
+		stack.scopes[stack.depth].cpu.add((float) ((now - stack.starts[stack.depth]) / NANOS_PER_MILLI));
+		if (stack.queries[stack.depth] >= 0) frames[frameIndex].end(stack.queries[stack.depth]);
+	}
+
+	/**
+	 * @param path       путь участка, например "frame/render"
+	 * @param percentile от 0 до 100
+	 * @return время процессора в миллисекундах или NaN, если замеров нет
+	 */
+	public static float getCpuTime(String path, double percentile) {
+		Scope scope = find(path);
+		return scope == null ? Float.NaN : scope.cpu.percentile(percentile);
+	}
+
+	/**
+	 * @return время GPU в миллисекундах или NaN, если замеров нет
+	 */
+	public static float getGpuTime(String path, double percentile) {
+		Scope scope = find(path);
+		return scope == null ? Float.NaN : scope.gpu.percentile(percentile);
+	}
+
+	private static Scope find(String path) {
+		for (Scope scope : scopes) {
+			if (scope.path.equals(path)) return scope;
+		}
+		return null;
+	}
+
+	/**
+	 * Сохраняет p50/p95/p99 всех участков в CSV, по строке на участок
+	 */
+	public static void writeCsv(Path file) {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			writer.println("scope,samples,cpu_p50_ms,cpu_p95_ms,cpu_p99_ms,gpu_samples,gpu_p50_ms,gpu_p95_ms,gpu_p99_ms");
+			for (Scope scope : scopes) {
+				writer.println(String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%d,%.3f,%.3f,%.3f", scope.path,
+						scope.cpu.size(), scope.cpu.percentile(50), scope.cpu.percentile(95), scope.cpu.percentile(99),
+						scope.gpu.size(), scope.gpu.percentile(50), scope.gpu.percentile(95), scope.gpu.percentile(99)));
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't write profile " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Сохраняет ту же сводку в JSON: массив объектов {scope, cpu, gpu}
+	 */
+	public static void writeJson(Path file) {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+			writer.println("[");
+			for (int i = 0; i < scopes.size(); i++) {
+				Scope scope = scopes.get(i);
+				writer.print("  {\"scope\": \"" + scope.path.replace("\\", "\\\\").replace("\"", "\\\"") + "\", \"cpu\": "
+						+ scope.cpu.toJson() + ", \"gpu\": " + scope.gpu.toJson() + "}");
+				writer.println(i + 1 < scopes.size() ? "," : "");
+			}
+			writer.println("]");
+		} catch (IOException e) {
+			System.err.println("Couldn't write profile " + file + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Удаляет объекты запросов; вызывается в потоке отрисовки до уничтожения контекста
+	 */
+	public static void destroy() {
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i] != null) frames[i].destroy();
+			frames[i] = null;
+		}
+		renderThread = null;
+	}
+
+	private static class Scope {
+		private final String path;
+		private final Map<String, Scope> children = new ConcurrentHashMap<>();
+		private final Samples cpu = new Samples(), gpu = new Samples();
+
+		private Scope(String path) {
+			this.path = path;
+		}
+
+		private Scope getChild(String name) {
+			Scope child = children.get(name);
+			if (child != null) return child;
+			Scope created = new Scope(path.isEmpty() ? name : path + "/" + name);
+			child = children.putIfAbsent(name, created);
+			if (child != null) return child;
+			scopes.add(created);
+			return created;
+		}
+	}
+
+	/**
+	 * Кольцо последних SAMPLES замеров в миллисекундах
+	 */
+	private static class Samples {
+		private final float[] values = new float[SAMPLES];
+		private final float[] sorted = new float[SAMPLES];
+		private int count, next;
+
+		private synchronized void add(float value) {
+			values[next] = value;
+			next = (next + 1) % SAMPLES;
+			if (count < SAMPLES) count++;
+		}
+
+		private synchronized int size() {
+			return count;
+		}
+
+		private synchronized float percentile(double percentile) {
+			if (count == 0) return Float.NaN;
+			System.arraycopy(values, 0, sorted, 0, count);
+			Arrays.sort(sorted, 0, count);
+			int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+			return sorted[Math.max(0, Math.min(rank, count - 1))];
+		}
+
+		private String toJson() {
+			if (size() == 0) return "null";
+			return String.format(Locale.ROOT, "{\"samples\": %d, \"p50\": %.3f, \"p95\": %.3f, \"p99\": %.3f}",
+					size(), percentile(50), percentile(95), percentile(99));
+		}
+	}
+
+	/**
+	 * Открытые участки одного потока
+	 */
+	private static class ScopeStack {
+		private Scope[] scopes = new Scope[8];
+		private long[] starts = new long[8];
+		private int[] queries = new int[8];
+		private int depth;
+
+		private void push(Scope scope, int query, long start) {
+			if (depth == scopes.length) {
+				scopes = Arrays.copyOf(scopes, depth * 2);
+				starts = Arrays.copyOf(starts, depth * 2);
+				queries = Arrays.copyOf(queries, depth * 2);
+			}
+			scopes[depth] = scope;
+			queries[depth] = query;
+			starts[depth] = start;
+			depth++;
+		}
+	}
+
+	/**
+	 * Пары меток времени одного кадра из кольца: запросы 2i и 2i+1 - начало и конец i-го участка
+	 */
+	private static class FrameQueries {
+		private int[] queries = new int[0];
+		private Scope[] scopes = new Scope[0];
+		private int count;
+
+		private int begin(Scope scope) {
+			if (count == scopes.length) grow();
+			scopes[count] = scope;
+			glQueryCounter(queries[2 * count], GL_TIMESTAMP);
+			return count++;
+		}
+
+		private void end(int index) {
+			glQueryCounter(queries[2 * index + 1], GL_TIMESTAMP);
+		}
+
+		private void grow() {
+			int capacity = Math.max(16, scopes.length * 2);
+			int[] created = new int[2 * (capacity - scopes.length)];
+			glCreateQueries(GL_TIMESTAMP, created);
+			int[] grown = Arrays.copyOf(queries, 2 * capacity);
+			System.arraycopy(created, 0, grown, queries.length, created.length);
+			queries = grown;
+			scopes = Arrays.copyOf(scopes, capacity);
+		}
+
+		/**
+		 * Переносит готовые результаты в замеры участков и освобождает кадр для новых запросов
+		 */
+		private void collect() {
+			for (int i = 0; i < count; i++) {
+				int start = queries[2 * i], end = queries[2 * i + 1];
+				if (glGetQueryObjecti(start, GL_QUERY_RESULT_AVAILABLE) != GL_FALSE
+						&& glGetQueryObjecti(end, GL_QUERY_RESULT_AVAILABLE) != GL_FALSE) {
+					long elapsed = glGetQueryObjecti64(end, GL_QUERY_RESULT) - glGetQueryObjecti64(start, GL_QUERY_RESULT);
+					scopes[i].gpu.add((float) (elapsed / NANOS_PER_MILLI));
+				}
+				scopes[i] = null;
+			}
+			count = 0;
+		}
+
+		private void destroy() {
+			if (queries.length > 0) glDeleteQueries(queries);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package main.java.engine.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Содержимое файла, открытого через VirtualFileSystem: только для чтения, в прямом буфере, поэтому его можно
+ * передавать в нативный код (stb, Assimp, OpenGL) без копирования. Буфер отображён в память, если файл лежит
+ * на диске, иначе взят из BufferPool и возвращается туда при close(). После close() данными пользоваться нельзя.
+ */
+public class Resource implements AutoCloseable {
+	private final String name;
+	private final ByteBuffer data;
+	private final boolean mapped;
+	private ByteBuffer pooled;
+
+	Resource(String name, ByteBuffer data, ByteBuffer pooled) {
+		this.name = name;
+		this.data = data;
+		this.pooled = pooled;
+		mapped = pooled == null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return данные файла от position 0 до limit, равного размеру
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	public int size() {
+		return data.limit();
+	}
+
+	public boolean isMapped() {
+		return mapped;
+	}
+
+	@Override
+	public void close() {
+		if (pooled != null) {
+			BufferPool.release(pooled);
+			pooled = null;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package main.java.engine.utils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Единый доступ к ресурсам: файлы на диске, подключённые каталоги и архивы (zip/jar) и classpath.
+ *
+ * Путь ищется по порядку: как путь на диске, затем относительно подключённых каталогов и архивов
+ * (в порядке подключения), затем в classpath (ведущий '/' отбрасывается). Файлы на диске, в том числе
+ * ресурсы classpath из каталогов, отображаются в память только для чтения; записи архивов читаются
+ * в буферы из BufferPool. Результат - Resource, который закрывается сразу после использования.
+ */
+public class VirtualFileSystem {
+	private static final List<Object> mounts = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Подключает каталог, относительно которого ищутся пути
+	 */
+	public static void mountDirectory(String path) {
+		File directory = new File(path);
+		if (!directory.isDirectory()) throw new IllegalArgumentException("Not a directory: " + path);
+		mounts.add(directory);
+	}
+
+	/**
+	 * Подключает архив zip или jar; записи ищутся по пути внутри архива
+	 */
+	public static void mountArchive(String path) throws IOException {
+		mounts.add(new ZipFile(path));
+	}
+
+	public static Resource open(String path) throws IOException {
+		File file = new File(path);
+		if (file.isFile()) return map(path, file);
+
+		String relative = path.startsWith("/") ? path.substring(1) : path;
+		for (Object mount : mounts) {
+			if (mount instanceof File) {
+				File mounted = new File((File) mount, relative);
+				if (mounted.isFile()) return map(path, mounted);
+			} else {
+				ZipFile archive = (ZipFile) mount;
+				ZipEntry entry = archive.getEntry(relative);
+				if (entry != null && !entry.isDirectory()) {
+					try (InputStream input = archive.getInputStream(entry)) {
+						return read(path, input, entry.getSize());
+					}
+				}
+			}
+		}
+
+		URL url = VirtualFileSystem.class.getClassLoader().getResource(relative);
+		if (url == null) throw new FileNotFoundException("Couldn't find the file at " + path);
+		if ("file".equals(url.getProtocol())) {
+			try {
+				return map(path, Paths.get(url.toURI()).toFile());
+			} catch (URISyntaxException e) {
+				throw new IOException("Bad resource URL " + url, e);
+			}
+		}
+		URLConnection connection = url.openConnection();
+		try (InputStream input = connection.getInputStream()) {
+			return read(path, input, connection.getContentLengthLong());
+		}
+	}
+
+	public static boolean exists(String path) {
+		if (new File(path).isFile()) return true;
+		String relative = path.startsWith("/") ? path.substring(1) : path;
+		for (Object mount : mounts) {
+			if (mount instanceof File ? new File((File) mount, relative).isFile() : ((ZipFile) mount).getEntry(relative) != null) {
+				return true;
+			}
+		}
+		return VirtualFileSystem.class.getClassLoader().getResource(relative) != null;
+	}
+
+	/**
+	 * Читает текстовый ресурс в UTF-8 целиком
+	 */
+	public static String readString(String path) throws IOException {
+		try (Resource resource = open(path)) {
+			return StandardCharsets.UTF_8.decode(resource.getData().duplicate()).toString();
+		}
+	}
+
+	private static Resource map(String name, File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) throw new IOException("File is too large: " + file);
+			return new Resource(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), null);
+		}
+	}
+
+	/**
+	 * Читает поток в буфер из пула; если размер неизвестен, буфер растёт по мере чтения
+	 */
+	private static Resource read(String name, InputStream input, long size) throws IOException {
+		if (size > Integer.MAX_VALUE) throw new IOException("Resource is too large: " + name);
+		ByteBuffer buffer = BufferPool.acquire(size >= 0 ? (int) size : 64 * 1024);
+		buffer.limit(buffer.capacity());
+		try {
+			ReadableByteChannel channel = Channels.newChannel(input);
+			while (true) {
+				if (!buffer.hasRemaining()) {
+					if (size >= 0 && buffer.position() >= size) break;
+					ByteBuffer larger = BufferPool.acquire(buffer.capacity() * 2);
+					larger.limit(larger.capacity());
+					buffer.flip();
+					larger.put(buffer);
+					BufferPool.release(buffer);
+					buffer = larger;
+				}
+				if (channel.read(buffer) < 0) break;
+			}
+		} catch (IOException | RuntimeException e) {
+			BufferPool.release(buffer);
+			throw e;
+		}
+		ByteBuffer data = ((ByteBuffer) buffer.duplicate().flip()).slice().asReadOnlyBuffer();
+		return new Resource(name, data, buffer);
+	}
+}
@@ -0,0 +1,11 @@
+// Переводит координаты текстуры в её прямоугольник (масштаб uvTransform.xy, смещение uvTransform.zw) внутри слоя.
+// Координаты отступают от краёв прямоугольника на размер выборки: на полтекселя при увеличении и на след
+// пикселя по большей оси при уменьшении, чтобы билинейная, трилинейная и анизотропная фильтрация не
+// захватывали соседние текстуры атласа.
+vec2 atlasCoord(sampler2DArray atlas, vec2 uv, vec4 uvTransform)
+{
+	vec2 texels = uvTransform.xy * vec2(textureSize(atlas, 0).xy);
+	vec2 footprint = max(abs(dFdx(uv)), abs(dFdy(uv)));
+	vec2 inset = min(max(footprint, 0.5 / texels), vec2(0.5));
+	return clamp(uv, inset, 1.0 - inset) * uvTransform.xy + uvTransform.zw;
+}
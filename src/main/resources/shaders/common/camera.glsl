@@ -0,0 +1,6 @@
+layout (std140) uniform CameraBlock
+{
+	mat4 projection;
+	mat4 view;
+	vec3 camera_pos;
+};
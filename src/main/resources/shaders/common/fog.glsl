@@ -0,0 +1,11 @@
+struct Fog
+{
+	int activeFog;
+	vec3 colour;
+	float density;
+};
+
+layout (std140) uniform FogBlock
+{
+	Fog fog;
+};
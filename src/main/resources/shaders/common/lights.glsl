@@ -0,0 +1,28 @@
+struct Attenuation
+{
+	float constant;
+	float linear;
+	float exponent;
+};
+
+struct PointLight
+{
+	vec3 colour;
+	vec3 position;
+	float intensity;
+	Attenuation att;
+};
+
+struct DirectionalLight
+{
+	vec3 colour;
+	vec3 direction;
+	float intensity;
+};
+
+layout (std140) uniform LightBlock
+{
+	PointLight pointLight;
+	DirectionalLight directionalLight;
+	vec3 ambientLight;
+};
@@ -0,0 +1,15 @@
+struct Material
+{
+	vec4 ambient;
+	vec4 diffuse;
+	vec4 specular;
+	vec4 uvTransform;
+	int hasTexture;
+	int layer;
+	float reflectance;
+};
+
+layout (std140) uniform MaterialBlock
+{
+	Material materials[128];
+};
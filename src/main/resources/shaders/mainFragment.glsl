@@ -4,6 +4,7 @@ in vec3 passColor;
 in vec2 passTextureCoord;
 in vec3 mvVertexNormal;
 in vec3 mvVertexPos;
+flat in int passMaterial;
 out vec4 outColor;
 
 vec4 textureColor;
@@ -13,71 +14,39 @@ vec4 ambientC;
 vec4 diffuseC;
 vec4 speculrC;
 
-struct Attenuation
-{
-	float constant;
-	float linear;
-	float exponent;
-};
-
-struct PointLight
-{
-	vec3 colour;
-	vec3 position;
-	float intensity;
-	Attenuation att;
-};
+#include "common/camera.glsl"
+#include "common/lights.glsl"
+#include "common/fog.glsl"
+#include "common/material.glsl"
 
-struct DirectionalLight
-{
-	vec3 colour;
-	vec3 direction;
-	float intensity;
-};
-
-struct Material
-{
-	vec4 ambient;
-	vec4 diffuse;
-	vec4 specular;
-	int hasTexture;
-	float reflectance;
-};
-
-struct Fog
-{
-	int activeFog;
-	vec3 colour;
-	float density;
-};
+#ifndef NUM_POINT_LIGHTS
+#define NUM_POINT_LIGHTS 1
+#endif
 
-uniform sampler2D texture_sampler;
+#ifdef TEXTURED
+#include "common/atlas.glsl"
+uniform sampler2DArray texture_sampler;
+#endif
 uniform vec4 u_Colour;
 
-uniform vec3 ambientLight;
-uniform vec3 camera_pos;
 uniform float specularPower;
-uniform Material material;
-uniform PointLight pointLight;
-uniform DirectionalLight directionalLight;
-uniform Fog fog;
+Material material;
 
 void setupColours(Material material, vec2 textCoord)
 {
-	if (material.hasTexture == 1)
-	{
-		ambientC = texture(texture_sampler, textCoord);
-		diffuseC = ambientC;
-		speculrC = ambientC;
-	}
-	else
-	{
-		ambientC = material.ambient;
-		diffuseC = material.diffuse;
-		speculrC = material.specular;
-	}
+#ifdef TEXTURED
+	vec2 layerCoord = atlasCoord(texture_sampler, textCoord, material.uvTransform);
+	ambientC = texture(texture_sampler, vec3(layerCoord, material.layer));
+	diffuseC = ambientC;
+	speculrC = ambientC;
+#else
+	ambientC = material.ambient;
+	diffuseC = material.diffuse;
+	speculrC = material.specular;
+#endif
 }
 
+#if NUM_POINT_LIGHTS > 0
 vec4 calcPointLight(PointLight light, vec3 position, vec3 normal)
 {
 	vec4 diffuseColour = vec4(0, 0, 0, 0);
@@ -103,6 +72,7 @@ vec4 calcPointLight(PointLight light, vec3 position, vec3 normal)
 	light.att.exponent * distance * distance;
 	return (diffuseColour + specColour) / attenuationInv;
 }
+#endif
 
 vec4 calcLightColour(vec3 light_colour, float light_intensity, vec3 position, vec3 to_light_dir, vec3 normal)
 {
@@ -129,6 +99,7 @@ vec4 calcDirectionalLight(DirectionalLight light, vec3 position, vec3 normal)
 	return calcLightColour(light.colour, light.intensity, position, normalize(light.direction), normal);
 }
 
+#ifdef FOG
 vec4 calcFog(vec3 pos, vec4 colour, Fog fog, vec3 ambientLight, DirectionalLight dirLight)
 {
 	vec3 fogColor = fog.colour * (ambientLight + dirLight.colour * dirLight.intensity);
@@ -140,18 +111,21 @@ vec4 calcFog(vec3 pos, vec4 colour, Fog fog, vec3 ambientLight, DirectionalLight
 	vec3 resultColour = mix(fogColor, colour.xyz, fogFactor);
 	return vec4(resultColour.xyz, colour.w);
 }
+#endif
 
 
 void main() {
+	material = materials[passMaterial];
 	setupColours(material, passTextureCoord);
 
 	vec4 diffuseSpecularComp = calcDirectionalLight(directionalLight, mvVertexPos, mvVertexNormal);
+#if NUM_POINT_LIGHTS > 0
 	diffuseSpecularComp += calcPointLight(pointLight, mvVertexPos, mvVertexNormal);
+#endif
 
 	outColor = ambientC * vec4(ambientLight, 1) + diffuseSpecularComp;
 
-	if ( fog.activeFog == 1 )
-	{
-		outColor = calcFog(mvVertexPos, outColor, fog, ambientLight, directionalLight);
-	}
+#ifdef FOG
+	outColor = calcFog(mvVertexPos, outColor, fog, ambientLight, directionalLight);
+#endif
 }
\ No newline at end of file
@@ -4,22 +4,25 @@ layout (location = 0) in vec3 inposition;
 layout (location = 1) in vec3 color;
 layout (location = 2) in vec2 textureCoord;
 layout (location = 3) in vec3 vnormal;
+layout (location = 4) in mat4 instanceModelMatrix;
+layout (location = 8) in int instanceMaterial;
 
 out vec3 mvVertexPos;
 out vec3 mvVertexNormal;
 out vec3 passColor;
 out vec2 passTextureCoord;
+flat out int passMaterial;
+
+#include "common/camera.glsl"
 
-uniform mat4 u_ModelMatrix;
-uniform mat4 view;
-uniform mat4 projection;
 uniform vec3 camerapos;
 
 void main() {
-	vec4 mvPos = u_ModelMatrix * vec4(inposition, 1.0);
+	vec4 mvPos = instanceModelMatrix * vec4(inposition, 1.0);
 	mvVertexPos = mvPos.xyz;
 	passColor = color;
 	passTextureCoord = textureCoord;
-	gl_Position = projection * view * u_ModelMatrix * vec4(inposition, 1.0f);
-	mvVertexNormal = normalize(u_ModelMatrix * vec4(vnormal, 0.0)).xyz;
+	passMaterial = instanceMaterial;
+	gl_Position = projection * view * mvPos;
+	mvVertexNormal = normalize(instanceModelMatrix * vec4(vnormal, 0.0)).xyz;
 }
\ No newline at end of file
@@ -4,10 +4,15 @@ in vec2 outTexCoord;
 in vec3 mvPos;
 out vec4 fragColor;
 
-uniform sampler2D texture_sampler;
+#include "common/atlas.glsl"
+
+uniform sampler2DArray texture_sampler;
+uniform int textureLayer;
+uniform vec4 uvTransform;
 uniform vec3 ambientLight;
 
 void main()
 {
-    fragColor = vec4(ambientLight, 1) * texture(texture_sampler, outTexCoord);
+    vec2 layerCoord = atlasCoord(texture_sampler, outTexCoord, uvTransform);
+    fragColor = vec4(ambientLight, 1) * texture(texture_sampler, vec3(layerCoord, textureLayer));
 }
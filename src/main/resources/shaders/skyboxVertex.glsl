@@ -7,10 +7,11 @@ layout (location=3) in vec3 vertexNormal;
 out vec2 outTexCoord;
 
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
+
+#include "common/camera.glsl"
 
 void main()
 {
-    gl_Position = projectionMatrix * modelViewMatrix * vec4(position, 1.0);
+    gl_Position = projection * modelViewMatrix * vec4(position, 1.0);
     outTexCoord = texCoord;
 }